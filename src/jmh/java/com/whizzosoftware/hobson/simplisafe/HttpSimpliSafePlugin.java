@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import com.whizzosoftware.hobson.api.device.MockDeviceManager;
+import com.whizzosoftware.hobson.api.plugin.http.Cookie;
+import com.whizzosoftware.hobson.api.plugin.http.HttpRequest;
+import com.whizzosoftware.hobson.api.property.PropertyContainer;
+import com.whizzosoftware.hobson.api.variable.MockVariableManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A SimpliSafe plugin that sends its requests over real HTTP connections in place of the Hobson runtime. As in
+ * the runtime, all plugin callbacks (configuration, refresh and HTTP responses) are delivered on a single event
+ * thread while the HTTP I/O itself runs on a separate pool.
+ *
+ * @author Dan Noguerol
+ */
+public class HttpSimpliSafePlugin extends SimpliSafePlugin {
+    private static final Logger logger = LoggerFactory.getLogger(HttpSimpliSafePlugin.class);
+    static final String THREAD_PREFIX = "simplisafe-hub";
+
+    private final ScheduledExecutorService eventLoop;
+    private final ExecutorService ioPool;
+    private volatile StateListener stateListener;
+
+    /**
+     * Constructor.
+     *
+     * @param pluginId the plugin ID
+     * @param ioThreads the number of threads used to perform HTTP requests
+     */
+    public HttpSimpliSafePlugin(String pluginId, int ioThreads) {
+        super(pluginId);
+        setDeviceManager(new MockDeviceManager());
+        setVariableManager(new MockVariableManager());
+        eventLoop = Executors.newSingleThreadScheduledExecutor(new SimulatedSimpliSafeServer.NamedThreadFactory(THREAD_PREFIX + "-event"));
+        ioPool = Executors.newFixedThreadPool(ioThreads, new SimulatedSimpliSafeServer.NamedThreadFactory(THREAD_PREFIX + "-io"));
+    }
+
+    /**
+     * Sets a listener to be notified whenever a base station's state changes.
+     *
+     * @param stateListener the listener
+     */
+    public void setStateListener(StateListener stateListener) {
+        this.stateListener = stateListener;
+    }
+
+    /**
+     * Configures the plugin and starts its refresh tick.
+     *
+     * @param config the plugin configuration
+     */
+    public void start(final PropertyContainer config) {
+        eventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                processConfiguration(config);
+            }
+        });
+        eventLoop.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                // an exception would silently cancel the scheduled tick
+                try {
+                    onRefresh();
+                } catch (Throwable t) {
+                    logger.error("Error during refresh", t);
+                }
+            }
+        }, getRefreshInterval(), getRefreshInterval(), TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the refresh tick and any outstanding HTTP requests.
+     */
+    public void stop() {
+        ioPool.shutdownNow();
+        eventLoop.shutdownNow();
+    }
+
+    @Override
+    protected void processState(String location, int code, long correlationId) {
+        int previous = getCachedState(location);
+        super.processState(location, code, correlationId);
+        StateListener l = stateListener;
+        if (l != null && code != previous && getCachedState(location) == code) {
+            l.onStateChange(location, code, System.currentTimeMillis());
+        }
+    }
+
+    @Override
+    protected void sendHttpRequest(final URI uri, final HttpRequest.Method method, final Map<String,String> headers, final Collection<Cookie> cookies, final byte[] body, final Object context) {
+        ioPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final FixtureHttpResponse response = performRequest(uri, method, headers, cookies, body);
+                    dispatch(new Runnable() {
+                        @Override
+                        public void run() {
+                            onHttpResponse(response, context);
+                        }
+                    });
+                } catch (final IOException e) {
+                    dispatch(new Runnable() {
+                        @Override
+                        public void run() {
+                            onHttpRequestFailure(e, context);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private void dispatch(Runnable r) {
+        try {
+            eventLoop.execute(r);
+        } catch (RejectedExecutionException ignored) {
+            // the plugin has been stopped
+        }
+    }
+
+    private FixtureHttpResponse performRequest(URI uri, HttpRequest.Method method, Map<String,String> headers, Collection<Cookie> cookies, byte[] body) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection)uri.toURL().openConnection();
+        try {
+            conn.setRequestMethod(method.toString());
+            if (headers != null) {
+                for (Map.Entry<String,String> e : headers.entrySet()) {
+                    conn.setRequestProperty(e.getKey(), e.getValue());
+                }
+            }
+            if (cookies != null && !cookies.isEmpty()) {
+                StringBuilder sb = new StringBuilder();
+                for (Cookie c : cookies) {
+                    if (sb.length() > 0) {
+                        sb.append("; ");
+                    }
+                    sb.append(c.getName()).append('=').append(c.getValue());
+                }
+                conn.setRequestProperty("Cookie", sb.toString());
+            }
+            if (body != null) {
+                conn.setDoOutput(true);
+                try (OutputStream os = conn.getOutputStream()) {
+                    os.write(body);
+                }
+            }
+
+            int status = conn.getResponseCode();
+            InputStream is = (status < 400) ? conn.getInputStream() : conn.getErrorStream();
+            return new FixtureHttpResponse(status, readFully(is), parseCookies(conn.getHeaderFields()), conn.getHeaderFields());
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        if (is != null) {
+            try {
+                byte[] buf = new byte[1024];
+                int len;
+                while ((len = is.read(buf)) > 0) {
+                    baos.write(buf, 0, len);
+                }
+            } finally {
+                is.close();
+            }
+        }
+        return baos.toByteArray();
+    }
+
+    private static List<Cookie> parseCookies(Map<String,List<String>> headers) {
+        List<String> values = null;
+        for (Map.Entry<String,List<String>> e : headers.entrySet()) {
+            // header names aren't guaranteed to keep their case
+            if ("Set-Cookie".equalsIgnoreCase(e.getKey())) {
+                values = e.getValue();
+            }
+        }
+        if (values == null) {
+            return Collections.emptyList();
+        }
+        List<Cookie> results = new ArrayList<>();
+        for (String s : values) {
+            int semi = s.indexOf(';');
+            String nv = (semi > -1) ? s.substring(0, semi) : s;
+            int eq = nv.indexOf('=');
+            if (eq > 0) {
+                results.add(new Cookie(nv.substring(0, eq).trim(), nv.substring(eq + 1).trim()));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * A listener for base station state changes.
+     */
+    public interface StateListener {
+        void onStateChange(String location, int code, long now);
+    }
+}
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of a refresh tick. An idle tick is the common case where no station is due; a forced tick
+ * polls every station and processes all of the responses.
+ *
+ * @author Dan Noguerol
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RefreshBenchmark {
+    // long enough that no station becomes due on its own during a run
+    private static final int POLL_INTERVAL = 3600;
+
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int stations;
+
+    private LoopbackSimpliSafePlugin plugin;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        plugin = new LoopbackSimpliSafePlugin(new SimpliSafeFixtures(), stations);
+        plugin.start(POLL_INTERVAL);
+    }
+
+    @Benchmark
+    public int idleTick() {
+        plugin.refresh(false);
+        return plugin.drain();
+    }
+
+    @Benchmark
+    public int forcedTick() {
+        plugin.refresh(true);
+        return plugin.drain();
+    }
+}
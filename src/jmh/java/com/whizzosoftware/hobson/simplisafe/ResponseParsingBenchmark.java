@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares extracting the response code from a get state fixture body with the streaming parser against
+ * building a full JSON object.
+ *
+ * @author Dan Noguerol
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseParsingBenchmark {
+    private byte[] body;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        body = new SimpliSafeFixtures().getStateBody(SimpliSafeBaseStation.STATE_HOME);
+    }
+
+    @Benchmark
+    public int streamingParser() {
+        return SimpliSafeResponseParser.parseResponseCode(body);
+    }
+
+    @Benchmark
+    public int jsonObject() {
+        return new JSONObject(new JSONTokener(new String(body, Charset.forName("UTF-8")))).getInt("response_code");
+    }
+}
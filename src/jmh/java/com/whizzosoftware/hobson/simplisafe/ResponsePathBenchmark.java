@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the full path of a get/set state request through the plugin: request construction, onHttpResponse
+ * dispatch, response parsing, SimpliSafeBaseStation.onState and the resulting variable update notification.
+ * Requests cycle round-robin through all stations. Run with "-prof gc" to get the allocation rate per response.
+ * The state cache is disabled except for getStateCached, which measures a get state answered from the cache.
+ *
+ * @author Dan Noguerol
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponsePathBenchmark {
+    // long enough that no refresh-driven polling happens during a run
+    private static final int POLL_INTERVAL = 3600;
+
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int stations;
+
+    @Param({"false", "true"})
+    public boolean stateChanges;
+
+    private LoopbackSimpliSafePlugin plugin;
+    private LoopbackSimpliSafePlugin cachedPlugin;
+    private String[] locations;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        plugin = new LoopbackSimpliSafePlugin(new SimpliSafeFixtures(), stations);
+        plugin.setAlternateStates(stateChanges);
+        plugin.start(POLL_INTERVAL);
+        cachedPlugin = new LoopbackSimpliSafePlugin(new SimpliSafeFixtures(), stations);
+        cachedPlugin.setAlternateStates(stateChanges);
+        cachedPlugin.start(POLL_INTERVAL, POLL_INTERVAL);
+        locations = SimpliSafeFixtures.getLocationIds(stations).toArray(new String[stations]);
+    }
+
+    @Benchmark
+    public int getState() {
+        plugin.performGetState(nextLocation());
+        return plugin.drain();
+    }
+
+    @Benchmark
+    public int getStateCached() {
+        cachedPlugin.performGetState(nextLocation());
+        return cachedPlugin.drain();
+    }
+
+    @Benchmark
+    public int setState() {
+        String location = nextLocation();
+        if (stateChanges && plugin.getCachedState(location) == SimpliSafeBaseStation.STATE_AWAY) {
+            plugin.performSetState(location, "home");
+        } else {
+            plugin.performSetState(location, stateChanges ? "away" : "home");
+        }
+        return plugin.drain();
+    }
+
+    private String nextLocation() {
+        String location = locations[next];
+        next = (next + 1) % locations.length;
+        return location;
+    }
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.*;
+
+/**
+ * An offline load test that runs the SimpliSafe plugin against a SimulatedSimpliSafeServer in the same JVM for a
+ * fixed time. A single plugin instance monitors all accounts. At the end it reports the request rate, request
+ * latency, end-to-end state propagation latency (from a server-side state change to the plugin observing it) and
+ * hub-side heap and thread usage.
+ *
+ * Options are passed as name=value arguments:
+ *
+ * accounts (1), locations (per account, 1000), duration (seconds, 60), minLatency/maxLatency (milliseconds,
+ * 20/200), unauthorizedRate (0.001), serverErrorRate (0.01), transitionInterval (seconds, 60), pollFloor
+ * (seconds, 10), pollCeiling (seconds, 120), pollRate (requests per second, 200), events (use the event
+ * stream, false), reconcileInterval (seconds, 300), stateCacheTtl (seconds, 5), ioThreads (32), serverThreads (64)
+ *
+ * @author Dan Noguerol
+ */
+public class SimpliSafeLoadTest {
+    private final Map<String,String> options;
+    private final List<Long> propagationLatencies = new ArrayList<>();
+    private long startTime;
+
+    public SimpliSafeLoadTest(Map<String,String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String,String> options = new HashMap<>();
+        for (String a : args) {
+            int ix = a.indexOf('=');
+            if (ix > 0) {
+                options.put(a.substring(0, ix), a.substring(ix + 1));
+            }
+        }
+        new SimpliSafeLoadTest(options).run();
+    }
+
+    public void run() throws Exception {
+        int accounts = getInt("accounts", 1);
+        int locations = getInt("locations", 1000);
+        int duration = getInt("duration", 60);
+
+        SimulatedSimpliSafeServer server = new SimulatedSimpliSafeServer(accounts, locations);
+        server.setLatency(getInt("minLatency", 20), getInt("maxLatency", 200));
+        server.setUnauthorizedRate(getDouble("unauthorizedRate", 0.001));
+        server.setServerErrorRate(getDouble("serverErrorRate", 0.01));
+        server.setScript(new int[] {SimpliSafeBaseStation.STATE_HOME, SimpliSafeBaseStation.STATE_AWAY, SimpliSafeBaseStation.STATE_OFF}, getInt("transitionInterval", 60) * 1000L);
+        server.start(getInt("serverThreads", 64));
+
+        final SimulatedSimpliSafeServer s = server;
+        HttpSimpliSafePlugin.StateListener listener = new HttpSimpliSafePlugin.StateListener() {
+            @Override
+            public void onStateChange(String location, int code, long now) {
+                long changeTime = s.getChangeTime(location, code);
+                // the initial state discovered at startup isn't a propagated change
+                if (changeTime >= startTime) {
+                    synchronized (propagationLatencies) {
+                        propagationLatencies.add(now - changeTime);
+                    }
+                }
+            }
+        };
+
+        System.out.println("Running " + accounts + " account(s) x " + locations + " location(s) against " + server.getBaseUrl() + " for " + duration + "s");
+
+        startTime = System.currentTimeMillis();
+        HttpSimpliSafePlugin plugin = new HttpSimpliSafePlugin("com.whizzosoftware.hobson.hub.hobson-hub-simplisafe", getInt("ioThreads", 32));
+        plugin.setStateListener(listener);
+        StringBuilder additional = new StringBuilder();
+        for (int a = 1; a < accounts; a++) {
+            additional.append(SimulatedSimpliSafeServer.getUsername(a)).append(":password;");
+        }
+        Map<String,Object> config = new HashMap<>();
+        config.put("username", SimulatedSimpliSafeServer.getUsername(0));
+        config.put("password", "password");
+        config.put("additionalAccounts", additional.toString());
+        config.put("baseUrl", server.getBaseUrl());
+        config.put("pollFloor", getInt("pollFloor", 10));
+        config.put("pollCeiling", getInt("pollCeiling", 120));
+        config.put("pollRateLimit", getDouble("pollRate", 200));
+        config.put("loginRateLimit", 60.0);
+        config.put("eventStream", Boolean.parseBoolean(options.get("events")));
+        config.put("reconcileInterval", getInt("reconcileInterval", 300));
+        config.put("stateCacheTtl", getInt("stateCacheTtl", 5));
+        plugin.start(LoopbackSimpliSafePlugin.createConfiguration(config));
+
+        // sample hub-side resource usage once per second
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long peakHeap = 0;
+        int peakThreads = 0;
+        long end = startTime + duration * 1000L;
+        while (System.currentTimeMillis() < end) {
+            Thread.sleep(1000);
+            peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+            peakThreads = Math.max(peakThreads, countThreads(HttpSimpliSafePlugin.THREAD_PREFIX));
+        }
+        long elapsed = System.currentTimeMillis() - startTime;
+
+        plugin.stop();
+        server.stop();
+
+        System.gc();
+        long retainedHeap = memory.getHeapMemoryUsage().getUsed();
+
+        System.out.println();
+        System.out.println("Elapsed:              " + elapsed + "ms");
+        System.out.println("Server requests:      " + server.getRequestCount() + " (" + String.format("%.1f", server.getRequestCount() * 1000.0 / elapsed) + " req/s)");
+        System.out.println("Server responses:     " + server.getStatusCounts());
+        System.out.println("Server transitions:   " + server.getTransitionCount());
+        synchronized (propagationLatencies) {
+            Collections.sort(propagationLatencies);
+            System.out.println("Observed transitions: " + propagationLatencies.size());
+            System.out.println("Propagation latency:  p50=" + getPercentile(50) + "ms, p90=" + getPercentile(90) + "ms, p99=" + getPercentile(99) + "ms, max=" + getPercentile(100) + "ms");
+        }
+        System.out.println("Plugin metrics:       " + plugin.getMetricsSnapshot());
+        System.out.println("Heap (JVM-wide):      peak=" + (peakHeap / 1024 / 1024) + "MB, after GC=" + (retainedHeap / 1024 / 1024) + "MB");
+        System.out.println("Hub threads:          peak=" + peakThreads);
+    }
+
+    private long getPercentile(double percentile) {
+        if (propagationLatencies.isEmpty()) {
+            return 0;
+        }
+        int ix = (int)Math.ceil(propagationLatencies.size() * percentile / 100.0) - 1;
+        return propagationLatencies.get(Math.max(0, Math.min(ix, propagationLatencies.size() - 1)));
+    }
+
+    private int countThreads(String prefix) {
+        int count = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int getInt(String name, int defaultValue) {
+        String s = options.get(name);
+        return (s != null) ? Integer.parseInt(s) : defaultValue;
+    }
+
+    private double getDouble(String name, double defaultValue) {
+        String s = options.get(name);
+        return (s != null) ? Double.parseDouble(s) : defaultValue;
+    }
+}
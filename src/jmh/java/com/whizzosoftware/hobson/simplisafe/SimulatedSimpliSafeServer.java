@@ -0,0 +1,562 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stand-in for the SimpliSafe service that runs on the loopback interface. It serves the same endpoints as the
+ * wiremock/mappings fixtures for any number of accounts and locations and can inject latency, random 401 and 503
+ * responses and scripted state transitions.
+ *
+ * Each location steps through the configured state script (e.g. home, away, off) at a fixed interval, starting
+ * at a random offset so that transitions are spread out. A set state request also changes the location's state,
+ * as in the fixtures' AlarmState scenario.
+ *
+ * State changes are also published to a per-account event log that is served as a long-poll endpoint at
+ * /mobile/{uid}/events?timeout={seconds}&amp;cursor={cursor}. A request returns as soon as there are events after the
+ * cursor (or with an empty list once the timeout elapses) and the response carries the cursor to continue from.
+ *
+ * @author Dan Noguerol
+ */
+public class SimulatedSimpliSafeServer {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int FIRST_LOCATION_ID = 100000;
+    private static final long TRANSITION_TICK = 100; // milliseconds
+    private static final int MAX_EVENTS = 10000;
+    private static final int SESSION_MAX_AGE = 4 * 60 * 60; // seconds
+
+    private final int accountCount;
+    private final int locationsPerAccount;
+    private final Map<String,Account> accountsByUsername = new HashMap<>();
+    private final Map<String,Account> accountsByUid = new HashMap<>();
+    private final Map<String,LocationState> locationMap = new HashMap<>();
+    private final Random random = new Random();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong transitionCount = new AtomicLong();
+    private final ConcurrentMap<Integer,AtomicLong> statusMap = new ConcurrentHashMap<>();
+    private volatile long minLatency;
+    private volatile long maxLatency;
+    private volatile double unauthorizedRate;
+    private volatile double serverErrorRate;
+    private volatile int[] script = new int[] {SimpliSafeBaseStation.STATE_HOME, SimpliSafeBaseStation.STATE_AWAY, SimpliSafeBaseStation.STATE_OFF};
+    private volatile long transitionInterval;
+    private volatile boolean eventsEnabled = true;
+    private HttpServer server;
+    private ExecutorService executor;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Constructor.
+     *
+     * @param accountCount the number of accounts
+     * @param locationsPerAccount the number of locations each account has
+     */
+    public SimulatedSimpliSafeServer(int accountCount, int locationsPerAccount) {
+        this.accountCount = accountCount;
+        this.locationsPerAccount = locationsPerAccount;
+        int id = FIRST_LOCATION_ID;
+        for (int a = 0; a < accountCount; a++) {
+            Account account = new Account(getUsername(a), Integer.toString(90000 + a));
+            for (int l = 0; l < locationsPerAccount; l++) {
+                String location = Integer.toString(id++);
+                account.locations.add(location);
+                locationMap.put(location, new LocationState(account, location, script[0]));
+            }
+            accountsByUsername.put(account.username, account);
+            accountsByUid.put(account.uid, account);
+        }
+    }
+
+    /**
+     * Returns the username of an account.
+     *
+     * @param account the account index
+     *
+     * @return a String
+     */
+    public static String getUsername(int account) {
+        return "user" + account + "@example.com";
+    }
+
+    /**
+     * Sets the latency added to every response. The latency of each response is uniformly distributed between
+     * the minimum and maximum.
+     *
+     * @param minLatency the minimum latency (in milliseconds)
+     * @param maxLatency the maximum latency (in milliseconds)
+     */
+    public void setLatency(long minLatency, long maxLatency) {
+        this.minLatency = minLatency;
+        this.maxLatency = Math.max(minLatency, maxLatency);
+    }
+
+    /**
+     * Sets the probability that a non-login request is rejected with a 401.
+     *
+     * @param unauthorizedRate a value between 0 and 1
+     */
+    public void setUnauthorizedRate(double unauthorizedRate) {
+        this.unauthorizedRate = unauthorizedRate;
+    }
+
+    /**
+     * Sets the probability that a request fails with a 503.
+     *
+     * @param serverErrorRate a value between 0 and 1
+     */
+    public void setServerErrorRate(double serverErrorRate) {
+        this.serverErrorRate = serverErrorRate;
+    }
+
+    /**
+     * Sets the scripted state transitions. Every location steps through the states in order (wrapping around)
+     * once per interval.
+     *
+     * @param states the state codes to step through
+     * @param interval the time between transitions (in milliseconds) or 0 to disable scripted transitions
+     */
+    public void setScript(int[] states, long interval) {
+        this.script = states;
+        this.transitionInterval = interval;
+    }
+
+    /**
+     * Sets whether the event endpoint is available. When disabled, event requests receive a 404.
+     *
+     * @param eventsEnabled the enabled flag
+     */
+    public void setEventsEnabled(boolean eventsEnabled) {
+        this.eventsEnabled = eventsEnabled;
+    }
+
+    /**
+     * Starts the server on an ephemeral loopback port.
+     *
+     * @param threads the number of request handling threads
+     *
+     * @throws IOException on failure
+     */
+    public void start(int threads) throws IOException {
+        long now = System.currentTimeMillis();
+        synchronized (locationMap) {
+            for (LocationState ls : locationMap.values()) {
+                ls.nextTransitionTime = now + (long)(random.nextDouble() * transitionInterval);
+            }
+        }
+
+        executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("simplisafe-server"));
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/mobile/", new MobileHandler());
+        server.setExecutor(executor);
+        server.start();
+
+        if (transitionInterval > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("simplisafe-server-script"));
+            scheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    processTransitions(System.currentTimeMillis());
+                }
+            }, TRANSITION_TICK, TRANSITION_TICK, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the server.
+     */
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (server != null) {
+            server.stop(0);
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the base URL of the server.
+     *
+     * @return a String
+     */
+    public String getBaseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    public int getAccountCount() {
+        return accountCount;
+    }
+
+    public int getLocationsPerAccount() {
+        return locationsPerAccount;
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getTransitionCount() {
+        return transitionCount.get();
+    }
+
+    /**
+     * Returns the number of responses sent by status code.
+     *
+     * @return a Map of status code to count
+     */
+    public Map<Integer,Long> getStatusCounts() {
+        Map<Integer,Long> results = new TreeMap<>();
+        for (Map.Entry<Integer,AtomicLong> e : statusMap.entrySet()) {
+            results.put(e.getKey(), e.getValue().get());
+        }
+        return results;
+    }
+
+    /**
+     * Returns the time a location last changed to a particular state.
+     *
+     * @param location the location ID
+     * @param code the state code
+     *
+     * @return the change time (or -1 if the location isn't currently in that state)
+     */
+    public long getChangeTime(String location, int code) {
+        synchronized (locationMap) {
+            LocationState ls = locationMap.get(location);
+            return (ls != null && ls.code == code) ? ls.changeTime : -1;
+        }
+    }
+
+    private void processTransitions(long now) {
+        int[] s = script;
+        synchronized (locationMap) {
+            for (LocationState ls : locationMap.values()) {
+                if (now >= ls.nextTransitionTime) {
+                    ls.step = (ls.step + 1) % s.length;
+                    setState(ls, s[ls.step], now);
+                    ls.nextTransitionTime = now + transitionInterval;
+                }
+            }
+        }
+    }
+
+    private void setState(LocationState ls, int code, long now) {
+        if (ls.code != code) {
+            ls.code = code;
+            ls.changeTime = now;
+            transitionCount.incrementAndGet();
+            ls.account.publish(ls.location, code);
+        }
+    }
+
+    private int getStateCode(String state) {
+        if ("off".equals(state)) {
+            return SimpliSafeBaseStation.STATE_OFF;
+        } else if ("home".equals(state)) {
+            return SimpliSafeBaseStation.STATE_HOME;
+        } else if ("away".equals(state)) {
+            return SimpliSafeBaseStation.STATE_AWAY;
+        } else {
+            return SimpliSafeBaseStation.STATE_UNKNOWN;
+        }
+    }
+
+    private String getSystemState(int code) {
+        switch (code) {
+            case SimpliSafeBaseStation.STATE_OFF:
+                return "Off";
+            case SimpliSafeBaseStation.STATE_AWAY:
+                return "Away";
+            default:
+                return "Home";
+        }
+    }
+
+    private String createLoginBody(Account account) {
+        return "{\"return_code\":1,\"session\":\"" + account.session + "\",\"uid\":\"" + account.uid + "\",\"username\":\"" + account.username + "\"}";
+    }
+
+    private String createLocationsBody(Account account) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"num_locations\":").append(account.locations.size()).append(",\"locations\":{");
+        synchronized (locationMap) {
+            boolean first = true;
+            for (String location : account.locations) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                sb.append('"').append(location).append("\":{\"street1\":\"1 Main Street\",\"street2\":\"\",\"city\":\"PopularTown\",\"state\":\"ZZ\",\"postal_code\":\"00000\",\"s_status\":\"20\",\"system_state\":\"")
+                    .append(getSystemState(locationMap.get(location).code)).append("\"}");
+            }
+        }
+        return sb.append("}}").toString();
+    }
+
+    private String createEventsBody(long cursor, List<Event> events) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"cursor\":\"").append(cursor).append("\",\"events\":[");
+        for (int i = 0; i < events.size(); i++) {
+            Event e = events.get(i);
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"location\":\"").append(e.location).append("\",\"state\":").append(e.code).append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    private static Map<String,String> parseForm(String body) throws IOException {
+        Map<String,String> results = new HashMap<>();
+        for (String s : body.split("&")) {
+            int ix = s.indexOf('=');
+            if (ix > 0) {
+                results.put(URLDecoder.decode(s.substring(0, ix), "UTF-8"), URLDecoder.decode(s.substring(ix + 1), "UTF-8"));
+            }
+        }
+        return results;
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (InputStream is = exchange.getRequestBody()) {
+            byte[] buf = new byte[1024];
+            int len;
+            while ((len = is.read(buf)) > 0) {
+                baos.write(buf, 0, len);
+            }
+        }
+        return new String(baos.toByteArray(), UTF8);
+    }
+
+    private class MobileHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requestCount.incrementAndGet();
+            try {
+                long latency = minLatency + (long)(ThreadLocalRandom.current().nextDouble() * (maxLatency - minLatency));
+                if (latency > 0) {
+                    Thread.sleep(latency);
+                }
+                handleRequest(exchange);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void handleRequest(HttpExchange exchange) throws IOException, InterruptedException {
+            String path = exchange.getRequestURI().getPath();
+            String body = readBody(exchange);
+            double r = ThreadLocalRandom.current().nextDouble();
+
+            if (r < serverErrorRate) {
+                send(exchange, 503, "{}");
+                return;
+            }
+
+            // login: /mobile/login
+            if ("/mobile/login".equals(path)) {
+                Account account = accountsByUsername.get(parseForm(body).get("name"));
+                if (account != null) {
+                    synchronized (account) {
+                        account.session = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+                        exchange.getResponseHeaders().add("Set-Cookie", "sid=" + account.session + "; Max-Age=" + SESSION_MAX_AGE);
+                        send(exchange, 200, createLoginBody(account));
+                    }
+                } else {
+                    send(exchange, 200, "{\"return_code\":0}");
+                }
+                return;
+            }
+
+            // everything else: /mobile/{uid}/locations or /mobile/{uid}/sid/{location}/(get|set)-state
+            String[] parts = path.split("/");
+            Account account = (parts.length > 2) ? accountsByUid.get(parts[2]) : null;
+            if (account == null || !account.isSession(getSessionCookie(exchange)) || r < serverErrorRate + unauthorizedRate) {
+                send(exchange, 401, "{}");
+            } else if (parts.length == 4 && "locations".equals(parts[3])) {
+                send(exchange, 200, createLocationsBody(account));
+            } else if (parts.length == 4 && "events".equals(parts[3]) && eventsEnabled) {
+                Map<String,String> query = parseForm(exchange.getRequestURI().getRawQuery() != null ? exchange.getRequestURI().getRawQuery() : "");
+                String cursor = query.get("cursor");
+                long timeout = query.containsKey("timeout") ? Long.parseLong(query.get("timeout")) * 1000 : 0;
+                List<Event> events = new ArrayList<>();
+                long next = account.poll((cursor != null) ? Long.parseLong(cursor) : -1, timeout, events);
+                send(exchange, 200, createEventsBody(next, events));
+            } else if (parts.length == 6 && "sid".equals(parts[3])) {
+                String location = parts[4];
+                int code;
+                synchronized (locationMap) {
+                    LocationState ls = account.locations.contains(location) ? locationMap.get(location) : null;
+                    if (ls == null) {
+                        send(exchange, 404, "{}");
+                        return;
+                    }
+                    if ("set-state".equals(parts[5])) {
+                        int c = getStateCode(parseForm(body).get("state"));
+                        if (c != SimpliSafeBaseStation.STATE_UNKNOWN) {
+                            setState(ls, c, System.currentTimeMillis());
+                        }
+                    }
+                    code = ls.code;
+                }
+                send(exchange, 200, "{\"response_code\":" + code + "}");
+            } else {
+                send(exchange, 404, "{}");
+            }
+        }
+
+        private String getSessionCookie(HttpExchange exchange) {
+            List<String> cookies = exchange.getRequestHeaders().get("Cookie");
+            if (cookies != null) {
+                for (String header : cookies) {
+                    for (String c : header.split(";")) {
+                        c = c.trim();
+                        if (c.startsWith("sid=")) {
+                            return c.substring(4);
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+
+        private void send(HttpExchange exchange, int status, String body) throws IOException {
+            AtomicLong count = statusMap.get(status);
+            if (count == null) {
+                statusMap.putIfAbsent(status, new AtomicLong());
+                count = statusMap.get(status);
+            }
+            count.incrementAndGet();
+
+            byte[] b = body.getBytes(UTF8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, b.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(b);
+            }
+        }
+    }
+
+    private static class Account {
+        final String username;
+        final String uid;
+        final Set<String> locations = new LinkedHashSet<>();
+        final LinkedList<Event> events = new LinkedList<>();
+        String session;
+        long lastSequence;
+
+        Account(String username, String uid) {
+            this.username = username;
+            this.uid = uid;
+        }
+
+        synchronized boolean isSession(String s) {
+            return (session != null && session.equals(s));
+        }
+
+        synchronized void publish(String location, int code) {
+            events.add(new Event(++lastSequence, location, code));
+            if (events.size() > MAX_EVENTS) {
+                events.remove(0);
+            }
+            notifyAll();
+        }
+
+        /**
+         * Waits for events after a cursor.
+         *
+         * @param cursor the sequence number of the last event seen (or -1 to start from now)
+         * @param timeout the maximum time to wait (in milliseconds)
+         * @param results the List to add events to
+         *
+         * @return the cursor to continue from
+         *
+         * @throws InterruptedException if interrupted while waiting
+         */
+        synchronized long poll(long cursor, long timeout, List<Event> results) throws InterruptedException {
+            if (cursor < 0) {
+                cursor = lastSequence;
+            }
+            long end = System.currentTimeMillis() + timeout;
+            long now;
+            while (lastSequence <= cursor && (now = System.currentTimeMillis()) < end) {
+                wait(end - now);
+            }
+            for (Event e : events) {
+                if (e.sequence > cursor) {
+                    results.add(e);
+                }
+            }
+            return lastSequence;
+        }
+    }
+
+    private static class Event {
+        final long sequence;
+        final String location;
+        final int code;
+
+        Event(long sequence, String location, int code) {
+            this.sequence = sequence;
+            this.location = location;
+            this.code = code;
+        }
+    }
+
+    private static class LocationState {
+        final Account account;
+        final String location;
+        int code;
+        int step;
+        long changeTime;
+        long nextTransitionTime;
+
+        LocationState(Account account, String location, int code) {
+            this.account = account;
+            this.location = location;
+            this.code = code;
+        }
+    }
+
+    static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The per-account state of the SimpliSafe plugin: its credentials, session, persisted session store, the locations
+ * that belong to it and its login/discovery backoff. Everything else (scheduling, rate limiting, the request
+ * pipeline) is shared by all accounts.
+ *
+ * @author Dan Noguerol
+ */
+public class SimpliSafeAccount {
+    private final String username;
+    private volatile SimpliSafeCredentials credentials;
+    private final SimpliSafeSessionManager sessionManager;
+    private final SimpliSafeSessionStore sessionStore;
+    private final Set<String> locations = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+    private volatile int setupFailures;
+    private volatile long nextSetupTime;
+    private volatile long nextDiscoveryTime;
+
+    /**
+     * Constructor.
+     *
+     * @param credentials the account credentials
+     * @param sessionManager the session manager for the account
+     * @param sessionStore the store used to persist the account's session
+     */
+    public SimpliSafeAccount(SimpliSafeCredentials credentials, SimpliSafeSessionManager sessionManager, SimpliSafeSessionStore sessionStore) {
+        this.username = credentials.getUsername();
+        this.credentials = credentials;
+        this.sessionManager = sessionManager;
+        this.sessionStore = sessionStore;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Returns the account credentials.
+     *
+     * @return a SimpliSafeCredentials object (or null if they have been found to be invalid)
+     */
+    public SimpliSafeCredentials getCredentials() {
+        return credentials;
+    }
+
+    public void setCredentials(SimpliSafeCredentials credentials) {
+        this.credentials = credentials;
+    }
+
+    public boolean hasCredentials() {
+        return (credentials != null);
+    }
+
+    public SimpliSafeSessionManager getSessionManager() {
+        return sessionManager;
+    }
+
+    public SimpliSafeSession getSession() {
+        return sessionManager.getSession();
+    }
+
+    public boolean hasSession() {
+        return (sessionManager.getSession() != null);
+    }
+
+    public SimpliSafeSessionStore getSessionStore() {
+        return sessionStore;
+    }
+
+    /**
+     * Returns the IDs of the locations that belong to this account.
+     *
+     * @return a Set of location IDs
+     */
+    public Set<String> getLocations() {
+        return locations;
+    }
+
+    public int getSetupFailures() {
+        return setupFailures;
+    }
+
+    public void setSetupFailures(int setupFailures) {
+        this.setupFailures = setupFailures;
+    }
+
+    public long getNextSetupTime() {
+        return nextSetupTime;
+    }
+
+    public void setNextSetupTime(long nextSetupTime) {
+        this.nextSetupTime = nextSetupTime;
+    }
+
+    /**
+     * Returns the time at which the account's locations should next be rediscovered.
+     *
+     * @return a timestamp in milliseconds
+     */
+    public long getNextDiscoveryTime() {
+        return nextDiscoveryTime;
+    }
+
+    public void setNextDiscoveryTime(long nextDiscoveryTime) {
+        this.nextDiscoveryTime = nextDiscoveryTime;
+    }
+
+    @Override
+    public String toString() {
+        return username;
+    }
+}
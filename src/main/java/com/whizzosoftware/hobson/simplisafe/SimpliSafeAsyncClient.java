@@ -0,0 +1,21 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+/**
+ * An interface for SimpliSafe requests whose outcome the caller wants to know. Each call returns a future that
+ * completes with the base station's resulting state code or fails if the request could not be completed.
+ * Futures can be combined with SimpliSafeFuture.allOf() (e.g. to arm several base stations and wait for all of
+ * them).
+ *
+ * @author Dan Noguerol
+ */
+public interface SimpliSafeAsyncClient extends SimpliSafeClient {
+    SimpliSafeFuture<Integer> getState(String location);
+    SimpliSafeFuture<Integer> setState(String location, String state);
+}
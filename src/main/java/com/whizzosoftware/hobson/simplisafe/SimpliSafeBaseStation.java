@@ -14,7 +14,6 @@ import com.whizzosoftware.hobson.api.property.PropertyContainer;
 import com.whizzosoftware.hobson.api.property.TypedProperty;
 import com.whizzosoftware.hobson.api.variable.HobsonVariable;
 import com.whizzosoftware.hobson.api.variable.VariableConstants;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,6 +21,11 @@ import org.slf4j.LoggerFactory;
  * A device representing a SimpliSafe base station. This manages the state of the overall system
  * (e.g. whether it is armed or not).
  *
+ * When a state change is requested, the new state is published optimistically right away and the transition is
+ * tracked as pending until a matching state is received. States that don't match while a transition is pending
+ * (e.g. from a poll sent before the change took effect) are recorded but not published. If the transition is
+ * never confirmed, the last confirmed state is published again.
+ *
  * @author Dan Noguerol
  */
 public class SimpliSafeBaseStation extends AbstractHobsonDevice {
@@ -30,8 +34,23 @@ public class SimpliSafeBaseStation extends AbstractHobsonDevice {
     public static final int STATE_OFF = 2;
     public static final int STATE_HOME = 4;
     public static final int STATE_AWAY = 5;
+    public static final int STATE_UNKNOWN = -1;
+
+    /**
+     * A variable with the full alarm state ("off", "home" or "away"); the ARMED variable is only true when away.
+     */
+    public static final String VAR_ALARM_STATE = "alarmState";
+
+    private static final int HISTORY_SIZE = 64;
 
-    private SimpliSafeClient client;
+    private SimpliSafeAsyncClient client;
+    private volatile int stateCode = STATE_UNKNOWN;
+    private int pendingCode = STATE_UNKNOWN;
+    private int publishedCode = STATE_UNKNOWN;
+    private long stateCorrelationId;
+    private volatile long lastPublishTime;
+    private volatile long heartbeatInterval;
+    private final SimpliSafeStateHistory history = new SimpliSafeStateHistory(HISTORY_SIZE);
 
     /**
      * Constructor.
@@ -40,7 +59,7 @@ public class SimpliSafeBaseStation extends AbstractHobsonDevice {
      * @param id the device ID
      * @param client a client to use for making SimpliSafe requests
      */
-    public SimpliSafeBaseStation(HobsonPlugin plugin, String id, SimpliSafeClient client) {
+    public SimpliSafeBaseStation(HobsonPlugin plugin, String id, SimpliSafeAsyncClient client) {
         super(plugin, id);
         this.client = client;
         setDefaultName("SimpliSafe (" + id + ")");
@@ -66,12 +85,70 @@ public class SimpliSafeBaseStation extends AbstractHobsonDevice {
         super.onStartup(config);
 
         publishVariable(VariableConstants.ARMED, null, HobsonVariable.Mask.READ_WRITE, null);
+        publishVariable(VAR_ALARM_STATE, null, HobsonVariable.Mask.READ_WRITE, null);
     }
 
     @Override
     public void onShutdown() {
     }
 
+    /**
+     * Sets how often the current state should be re-published even if it has not changed.
+     *
+     * @param heartbeatInterval the interval in milliseconds (0 to only publish on state changes)
+     */
+    public void setHeartbeatInterval(long heartbeatInterval) {
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    /**
+     * Returns the last known state code for this base station.
+     *
+     * @return the state code (or STATE_UNKNOWN if no state has been received yet)
+     */
+    public int getStateCode() {
+        return stateCode;
+    }
+
+    /**
+     * Returns the recent state transitions of this base station. States ignored as stale aren't recorded.
+     *
+     * @return a SimpliSafeStateHistory
+     */
+    public SimpliSafeStateHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Indicates whether a requested state change is waiting to be confirmed.
+     *
+     * @return a boolean
+     */
+    public synchronized boolean isPending() {
+        return (pendingCode != STATE_UNKNOWN);
+    }
+
+    /**
+     * Returns the state code of a requested state change that is waiting to be confirmed.
+     *
+     * @return the state code (or STATE_UNKNOWN if no state change is pending)
+     */
+    public synchronized int getPendingCode() {
+        return pendingCode;
+    }
+
+    /**
+     * Indicates whether a state from a request is older than the current state, i.e. the request was sent before
+     * the one that produced the current state.
+     *
+     * @param correlationId the correlation ID of the request
+     *
+     * @return a boolean
+     */
+    public synchronized boolean isStale(long correlationId) {
+        return (correlationId < stateCorrelationId);
+    }
+
     /**
      * Called by the plugin to allow this device to update its state.
      */
@@ -80,16 +157,142 @@ public class SimpliSafeBaseStation extends AbstractHobsonDevice {
     }
 
     /**
-     * Called by the plugin when a state response for this device is received.
-     * @param json
+     * Called by the plugin when a state code for this device has been determined. A variable update is only
+     * fired if the state has changed or the heartbeat interval has elapsed since the last one. A state from a
+     * request sent before the one that produced the current state is ignored.
+     *
+     * @param code the state code
+     * @param correlationId the correlation ID of the request the state came from
+     *
+     * @return true if the state changed
+     */
+    public boolean onState(int code, long correlationId) {
+        long now = System.currentTimeMillis();
+        boolean changed;
+        boolean publish;
+        synchronized (this) {
+            if (correlationId < stateCorrelationId) {
+                return false;
+            }
+            stateCorrelationId = correlationId;
+            changed = (code != stateCode);
+            if (changed) {
+                stateCode = code;
+                history.add(now, code);
+            }
+            if (pendingCode != STATE_UNKNOWN) {
+                if (code != pendingCode) {
+                    // the optimistic state remains published until it's confirmed or rolled back
+                    return changed;
+                }
+                logger.debug("{} confirmed state change to {}", getContext().getDeviceId(), code);
+                pendingCode = STATE_UNKNOWN;
+            }
+            publish = (code != publishedCode || (heartbeatInterval > 0 && now - lastPublishTime >= heartbeatInterval));
+            if (publish) {
+                publishedCode = code;
+                lastPublishTime = now;
+            }
+        }
+        if (publish) {
+            publishState(code);
+        }
+        return changed;
+    }
+
+    /**
+     * Starts a state change by optimistically publishing the requested state.
+     *
+     * @param code the requested state code
+     */
+    protected void beginStateChange(int code) {
+        boolean publish;
+        synchronized (this) {
+            pendingCode = code;
+            publish = (code != publishedCode);
+            if (publish) {
+                publishedCode = code;
+                lastPublishTime = System.currentTimeMillis();
+            }
+        }
+        if (publish) {
+            publishState(code);
+        }
+    }
+
+    /**
+     * Abandons a pending state change and publishes the last confirmed state again.
+     *
+     * @param code the state code of the state change to roll back; nothing happens if a different (or no) state
+     *             change is pending
+     * @param reason a description of why the state change is being rolled back
+     *
+     * @return true if the state change was rolled back
+     */
+    public boolean rollbackStateChange(int code, String reason) {
+        int current;
+        boolean publish;
+        synchronized (this) {
+            if (pendingCode == STATE_UNKNOWN || pendingCode != code) {
+                return false;
+            }
+            pendingCode = STATE_UNKNOWN;
+            current = stateCode;
+            // if no state has ever been received, the next one is published whatever it is
+            publish = (current != STATE_UNKNOWN && current != publishedCode);
+            publishedCode = (current != STATE_UNKNOWN) ? current : STATE_UNKNOWN;
+            if (publish) {
+                lastPublishTime = System.currentTimeMillis();
+            }
+        }
+        logger.error("State change of {} to {} was not confirmed ({}); reverting to {}", getContext().getDeviceId(), code, reason, current);
+        if (publish) {
+            publishState(current);
+        }
+        return true;
+    }
+
+    private void publishState(int code) {
+        fireVariableUpdateNotification(VariableConstants.ARMED, (code == STATE_AWAY));
+        fireVariableUpdateNotification(VAR_ALARM_STATE, getStateName(code));
+    }
+
+    /**
+     * Converts a "system_state" value from a locations response to a state code.
+     *
+     * @param state the system state string (e.g. "Off", "Home", "Away")
+     *
+     * @return the state code or STATE_UNKNOWN if the value is missing or not recognized
      */
-    public void onState(JSONObject json) {
-        logger.trace("{} received state JSON: {}", getContext().getDeviceId(), json);
-        if (json.has("response_code")) {
-            int code = json.getInt("response_code");
-            fireVariableUpdateNotification(VariableConstants.ARMED, (code == STATE_AWAY));
+    public static int parseSystemState(String state) {
+        if ("off".equalsIgnoreCase(state)) {
+            return STATE_OFF;
+        } else if ("home".equalsIgnoreCase(state)) {
+            return STATE_HOME;
+        } else if ("away".equalsIgnoreCase(state)) {
+            return STATE_AWAY;
         } else {
-            logger.error("Received unexpected get status response: {}", json);
+            return STATE_UNKNOWN;
+        }
+    }
+
+    /**
+     * Converts a state code to the state name used in set state requests and the alarm state variable.
+     *
+     * @param code the state code
+     *
+     * @return the state name (or null if the code is not recognized)
+     */
+    public static String getStateName(int code) {
+        switch (code) {
+            case STATE_OFF:
+                return "off";
+            case STATE_HOME:
+                return "home";
+            case STATE_AWAY:
+                return "away";
+            default:
+                return null;
         }
     }
 
@@ -102,10 +305,41 @@ public class SimpliSafeBaseStation extends AbstractHobsonDevice {
     @Override
     public void onSetVariable(String name, Object value) {
         logger.debug("Variable {} changed to {}", name, value);
-        // the only variable we currently care about is "ARMED"
+        String state = null;
         if (VariableConstants.ARMED.equals(name) && value instanceof Boolean) {
-            // send the request to SimpliSafe to change the state
-            client.performSetState(getContext().getDeviceId(), ((Boolean)value) ? "away" : "home");
+            state = ((Boolean)value) ? "away" : "home";
+        } else if (VAR_ALARM_STATE.equals(name) && value != null) {
+            state = getStateName(parseSystemState(value.toString()));
+            if (state == null) {
+                logger.error("Ignoring invalid alarm state: {}", value);
+            }
         }
+        if (state != null) {
+            setState(state);
+        }
+    }
+
+    /**
+     * Sends a request to SimpliSafe to change the state of this base station.
+     *
+     * @param state the new state (off, home or away)
+     */
+    private void setState(final String state) {
+        final String location = getContext().getDeviceId();
+        final int code = parseSystemState(state);
+        beginStateChange(code);
+        client.setState(location, state).addListener(new SimpliSafeFuture.Listener<Integer>() {
+            @Override
+            public void onComplete(SimpliSafeFuture<Integer> future) {
+                if (future.getCause() != null) {
+                    logger.error("Unable to set state of {} to {}", location, state, future.getCause());
+                    rollbackStateChange(code, "request failed");
+                } else if (future.getNow() != code) {
+                    rollbackStateChange(code, "SimpliSafe reported state " + future.getNow());
+                } else {
+                    logger.debug("State of {} is now {}", location, future.getNow());
+                }
+            }
+        });
     }
 }
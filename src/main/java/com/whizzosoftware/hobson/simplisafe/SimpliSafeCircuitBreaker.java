@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+/**
+ * A circuit breaker that stops background requests to SimpliSafe after repeated failures. Once open, it stays
+ * open for a fixed period and then allows a single probe request through (half-open). A successful probe closes
+ * the circuit while a failed one opens it again.
+ *
+ * @author Dan Noguerol
+ */
+public class SimpliSafeCircuitBreaker {
+    private enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openDuration;
+    private State state = State.CLOSED;
+    private int failureCount;
+    private long openUntil;
+    private boolean probeInFlight;
+
+    /**
+     * Constructor.
+     *
+     * @param failureThreshold the number of consecutive failures that opens the circuit
+     * @param openDuration how long (in milliseconds) the circuit stays open before a probe is allowed
+     */
+    public SimpliSafeCircuitBreaker(int failureThreshold, long openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * Indicates whether a request may be sent. When the open period has elapsed, this moves the circuit to
+     * half-open and allows exactly one caller through as a probe.
+     *
+     * @param now the current time
+     *
+     * @return a boolean
+     */
+    public synchronized boolean allowRequest(long now) {
+        switch (state) {
+            case OPEN:
+                if (now < openUntil) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probeInFlight = true;
+                openUntil = now;
+                return true;
+            case HALF_OPEN:
+                if (probeInFlight && now < openUntil + openDuration) {
+                    return false;
+                }
+                // a probe that never completed is treated as lost
+                probeInFlight = true;
+                openUntil = now;
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Indicates whether the circuit is half-open (i.e. only a single probe request should be sent).
+     *
+     * @return a boolean
+     */
+    public synchronized boolean isHalfOpen() {
+        return (state == State.HALF_OPEN);
+    }
+
+    /**
+     * Records a successful request.
+     *
+     * @return true if this closed a previously open circuit
+     */
+    public synchronized boolean onSuccess() {
+        failureCount = 0;
+        probeInFlight = false;
+        if (state != State.CLOSED) {
+            state = State.CLOSED;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records a failed request.
+     *
+     * @param now the current time
+     *
+     * @return true if this opened a previously closed circuit
+     */
+    public synchronized boolean onFailure(long now) {
+        failureCount++;
+        probeInFlight = false;
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            openUntil = now + openDuration;
+        } else if (state == State.CLOSED && failureCount >= failureThreshold) {
+            state = State.OPEN;
+            openUntil = now + openDuration;
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+/**
+ * A source of base station state change events that can be used alongside polling. While an account's event
+ * source is healthy, its base stations are only polled at a slow reconciliation rate.
+ *
+ * @author Dan Noguerol
+ */
+public interface SimpliSafeEventSource {
+    /**
+     * Called on each refresh for an account with a valid session and no outstanding event request. This gives
+     * the source an opportunity to (re)connect.
+     *
+     * @param account the account
+     * @param now the current time
+     */
+    void refresh(SimpliSafeAccount account, long now);
+
+    /**
+     * Called when events have been received for an account.
+     *
+     * @param account the account
+     * @param cursor the position in the event stream to continue from (or null)
+     * @param now the current time
+     */
+    void onEvents(SimpliSafeAccount account, String cursor, long now);
+
+    /**
+     * Called when an event request for an account has failed or timed out.
+     *
+     * @param account the account
+     * @param now the current time
+     */
+    void onFailure(SimpliSafeAccount account, long now);
+
+    /**
+     * Indicates whether events are currently being received for an account.
+     *
+     * @param account the account
+     * @param now the current time
+     *
+     * @return a boolean
+     */
+    boolean isHealthy(SimpliSafeAccount account, long now);
+
+    /**
+     * Discards any state kept for an account (e.g. because its session was cleared or it was removed).
+     *
+     * @param account the account
+     */
+    void reset(SimpliSafeAccount account);
+}
@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * The result of an asynchronous SimpliSafe operation. A future is completed exactly once, either with a value or
+ * a failure. Listeners are called on the thread that completes the future (normally the plugin's event thread) or
+ * immediately if the future has already completed, so they should not block.
+ *
+ * @author Dan Noguerol
+ */
+public class SimpliSafeFuture<T> implements Future<T> {
+    private T value;
+    private Throwable cause;
+    private boolean done;
+    private List<Listener<T>> listeners;
+
+    /**
+     * Returns a future that has already completed with a value.
+     *
+     * @param value the value
+     *
+     * @return a SimpliSafeFuture
+     */
+    public static <T> SimpliSafeFuture<T> completed(T value) {
+        SimpliSafeFuture<T> f = new SimpliSafeFuture<>();
+        f.complete(value);
+        return f;
+    }
+
+    /**
+     * Returns a future that has already failed.
+     *
+     * @param cause the cause of the failure
+     *
+     * @return a SimpliSafeFuture
+     */
+    public static <T> SimpliSafeFuture<T> failed(Throwable cause) {
+        SimpliSafeFuture<T> f = new SimpliSafeFuture<>();
+        f.fail(cause);
+        return f;
+    }
+
+    /**
+     * Returns a future that completes with the values of all the given futures (in order) once they have all
+     * completed, or fails as soon as any of them fails.
+     *
+     * @param futures the futures
+     *
+     * @return a SimpliSafeFuture
+     */
+    public static <T> SimpliSafeFuture<List<T>> allOf(Collection<SimpliSafeFuture<T>> futures) {
+        final SimpliSafeFuture<List<T>> result = new SimpliSafeFuture<>();
+        final List<SimpliSafeFuture<T>> list = new ArrayList<>(futures);
+        if (list.isEmpty()) {
+            result.complete(Collections.<T>emptyList());
+            return result;
+        }
+        final int[] remaining = new int[] {list.size()};
+        Listener<T> listener = new Listener<T>() {
+            @Override
+            public void onComplete(SimpliSafeFuture<T> future) {
+                if (future.getCause() != null) {
+                    result.fail(future.getCause());
+                } else {
+                    boolean last;
+                    synchronized (remaining) {
+                        last = (--remaining[0] == 0);
+                    }
+                    if (last) {
+                        List<T> values = new ArrayList<>(list.size());
+                        for (SimpliSafeFuture<T> f : list) {
+                            values.add(f.getNow());
+                        }
+                        result.complete(values);
+                    }
+                }
+            }
+        };
+        for (SimpliSafeFuture<T> f : list) {
+            f.addListener(listener);
+        }
+        return result;
+    }
+
+    /**
+     * Completes the future with a value.
+     *
+     * @param value the value
+     *
+     * @return true if this call completed the future
+     */
+    public boolean complete(T value) {
+        List<Listener<T>> l;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.value = value;
+            l = finish();
+        }
+        notifyListeners(l);
+        return true;
+    }
+
+    /**
+     * Completes the future with a failure.
+     *
+     * @param cause the cause of the failure
+     *
+     * @return true if this call completed the future
+     */
+    public boolean fail(Throwable cause) {
+        List<Listener<T>> l;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.cause = cause;
+            l = finish();
+        }
+        notifyListeners(l);
+        return true;
+    }
+
+    /**
+     * Adds a listener to be called when the future completes.
+     *
+     * @param listener the listener
+     */
+    public void addListener(Listener<T> listener) {
+        synchronized (this) {
+            if (!done) {
+                if (listeners == null) {
+                    listeners = new ArrayList<>(1);
+                }
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.onComplete(this);
+    }
+
+    /**
+     * Returns the cause of the failure.
+     *
+     * @return a Throwable (or null if the future hasn't completed or completed successfully)
+     */
+    public synchronized Throwable getCause() {
+        return cause;
+    }
+
+    /**
+     * Returns the value without waiting.
+     *
+     * @return the value (or null if the future hasn't completed or failed)
+     */
+    public synchronized T getNow() {
+        return value;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        // the request can't be recalled once it's been sent; this only stops the caller from waiting on it
+        return fail(new CancellationException());
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return (cause instanceof CancellationException);
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+        return getResult();
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long end = System.nanoTime() + unit.toNanos(timeout);
+        long remaining;
+        while (!done) {
+            remaining = end - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return getResult();
+    }
+
+    private T getResult() throws ExecutionException {
+        if (cause instanceof CancellationException) {
+            throw (CancellationException)cause;
+        } else if (cause != null) {
+            throw new ExecutionException(cause);
+        }
+        return value;
+    }
+
+    private List<Listener<T>> finish() {
+        done = true;
+        notifyAll();
+        List<Listener<T>> l = listeners;
+        listeners = null;
+        return l;
+    }
+
+    private void notifyListeners(List<Listener<T>> l) {
+        if (l != null) {
+            for (Listener<T> listener : l) {
+                listener.onComplete(this);
+            }
+        }
+    }
+
+    /**
+     * A listener for future completion.
+     */
+    public interface Listener<T> {
+        void onComplete(SimpliSafeFuture<T> future);
+    }
+}
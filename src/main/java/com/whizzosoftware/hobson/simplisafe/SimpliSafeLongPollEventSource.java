@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An event source that keeps a single long-poll request outstanding per account. The server holds each request
+ * until state changes occur or the poll timeout elapses, and a new request is sent as soon as the previous one
+ * completes. Failures back off according to a retry policy.
+ *
+ * The stream is considered healthy for an account as long as a request has succeeded within the last two poll
+ * timeouts and there haven't been several consecutive failures. Since requests resume from the last cursor, no
+ * events are missed across an occasional failure; a stream that stops responding falls back to normal polling.
+ *
+ * @author Dan Noguerol
+ */
+public class SimpliSafeLongPollEventSource implements SimpliSafeEventSource {
+    private static final int MAX_HEALTHY_FAILURES = 2;
+
+    private final SimpliSafeEventClient client;
+    private final long pollTimeout;
+    private final SimpliSafeRetryPolicy retryPolicy;
+    private final ConcurrentMap<String,StreamState> stateMap = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param client the client used to send event requests
+     * @param pollTimeout the maximum time (in milliseconds) the server holds a request
+     * @param retryPolicy the policy used to delay reconnection after a failure
+     */
+    public SimpliSafeLongPollEventSource(SimpliSafeEventClient client, long pollTimeout, SimpliSafeRetryPolicy retryPolicy) {
+        this.client = client;
+        this.pollTimeout = pollTimeout;
+        this.retryPolicy = retryPolicy;
+    }
+
+    @Override
+    public void refresh(SimpliSafeAccount account, long now) {
+        StreamState s = getState(account);
+        if (now >= s.nextConnectTime) {
+            client.performEventRequest(account, s.cursor);
+        }
+    }
+
+    @Override
+    public void onEvents(SimpliSafeAccount account, String cursor, long now) {
+        StreamState s = getState(account);
+        if (cursor != null) {
+            s.cursor = cursor;
+        }
+        s.failures = 0;
+        s.lastSuccessTime = now;
+        client.performEventRequest(account, s.cursor);
+    }
+
+    @Override
+    public void onFailure(SimpliSafeAccount account, long now) {
+        StreamState s = getState(account);
+        s.nextConnectTime = now + retryPolicy.getDelay(++s.failures);
+    }
+
+    @Override
+    public boolean isHealthy(SimpliSafeAccount account, long now) {
+        StreamState s = stateMap.get(account.getUsername());
+        return (s != null && s.failures <= MAX_HEALTHY_FAILURES && s.lastSuccessTime > 0 && now - s.lastSuccessTime <= pollTimeout * 2);
+    }
+
+    @Override
+    public void reset(SimpliSafeAccount account) {
+        stateMap.remove(account.getUsername());
+    }
+
+    private StreamState getState(SimpliSafeAccount account) {
+        StreamState s = stateMap.get(account.getUsername());
+        if (s == null) {
+            stateMap.putIfAbsent(account.getUsername(), new StreamState());
+            s = stateMap.get(account.getUsername());
+        }
+        return s;
+    }
+
+    private static class StreamState {
+        volatile String cursor;
+        volatile int failures;
+        volatile long lastSuccessTime;
+        volatile long nextConnectTime;
+    }
+}
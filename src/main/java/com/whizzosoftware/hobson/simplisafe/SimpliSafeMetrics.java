@@ -0,0 +1,381 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Low-overhead request metrics for the SimpliSafe plugin. For each operation type, this keeps request/failure
+ * counters, timeout, stale response and cache hit counters, counts by HTTP status code and a latency histogram
+ * with power-of-two millisecond buckets. Request and failure counts are also kept by location.
+ *
+ * @author Dan Noguerol
+ */
+public class SimpliSafeMetrics {
+    private static final int BUCKET_COUNT = 24; // the last bucket covers latencies of ~4.6 hours or more
+
+    private final Map<SimpliSafeOperation,OperationMetrics> operationMap = new EnumMap<>(SimpliSafeOperation.class);
+    private final ConcurrentMap<String,LocationMetrics> locationMap = new ConcurrentHashMap<>();
+
+    public SimpliSafeMetrics() {
+        for (SimpliSafeOperation op : SimpliSafeOperation.values()) {
+            operationMap.put(op, new OperationMetrics());
+        }
+    }
+
+    /**
+     * Records that a request was sent.
+     *
+     * @param op the operation
+     * @param location the location (or null if the operation is not location-specific)
+     */
+    public void onRequest(SimpliSafeOperation op, String location) {
+        operationMap.get(op).requests.incrementAndGet();
+        if (location != null) {
+            getLocationMetrics(location).requests.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records that a response was received.
+     *
+     * @param op the operation
+     * @param location the location (or null if the operation is not location-specific)
+     * @param statusCode the HTTP status code
+     * @param latency the round trip time in milliseconds (or -1 if not known)
+     */
+    public void onResponse(SimpliSafeOperation op, String location, int statusCode, long latency) {
+        OperationMetrics om = operationMap.get(op);
+        AtomicLong count = om.statusMap.get(statusCode);
+        if (count == null) {
+            om.statusMap.putIfAbsent(statusCode, new AtomicLong());
+            count = om.statusMap.get(statusCode);
+        }
+        count.incrementAndGet();
+        if (statusCode != 200) {
+            om.errors.incrementAndGet();
+            if (location != null) {
+                getLocationMetrics(location).errors.incrementAndGet();
+            }
+        }
+        om.recordLatency(latency);
+    }
+
+    /**
+     * Records that a request failed without a response (e.g. a network error or timeout).
+     *
+     * @param op the operation
+     * @param location the location (or null if the operation is not location-specific)
+     * @param latency the time in milliseconds until the failure was detected (or -1 if not known)
+     */
+    public void onFailure(SimpliSafeOperation op, String location, long latency) {
+        OperationMetrics om = operationMap.get(op);
+        om.failures.incrementAndGet();
+        om.recordLatency(latency);
+        if (location != null) {
+            getLocationMetrics(location).errors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records that a request passed its deadline without a response.
+     *
+     * @param op the operation
+     * @param location the location (or null if the operation is not location-specific)
+     */
+    public void onTimeout(SimpliSafeOperation op, String location) {
+        operationMap.get(op).timeouts.incrementAndGet();
+        if (location != null) {
+            getLocationMetrics(location).errors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records that a response was dropped because its request had timed out or been superseded.
+     *
+     * @param op the operation
+     */
+    public void onStale(SimpliSafeOperation op) {
+        operationMap.get(op).stale.incrementAndGet();
+    }
+
+    /**
+     * Records that a request was served from a local cache without being sent.
+     *
+     * @param op the operation
+     */
+    public void onCacheHit(SimpliSafeOperation op) {
+        operationMap.get(op).cacheHits.incrementAndGet();
+    }
+
+    /**
+     * Discards the per-location counters for a location (e.g. when its base station has been removed).
+     *
+     * @param location the location ID
+     */
+    public void removeLocation(String location) {
+        locationMap.remove(location);
+    }
+
+    /**
+     * Returns a point-in-time copy of the metrics.
+     *
+     * @return a Snapshot
+     */
+    public Snapshot getSnapshot() {
+        Map<SimpliSafeOperation,OperationSnapshot> ops = new EnumMap<>(SimpliSafeOperation.class);
+        for (Map.Entry<SimpliSafeOperation,OperationMetrics> e : operationMap.entrySet()) {
+            ops.put(e.getKey(), e.getValue().snapshot());
+        }
+        Map<String,long[]> locs = new HashMap<>();
+        for (Map.Entry<String,LocationMetrics> e : locationMap.entrySet()) {
+            locs.put(e.getKey(), new long[] {e.getValue().requests.get(), e.getValue().errors.get()});
+        }
+        return new Snapshot(ops, locs);
+    }
+
+    private LocationMetrics getLocationMetrics(String location) {
+        LocationMetrics lm = locationMap.get(location);
+        if (lm == null) {
+            locationMap.putIfAbsent(location, new LocationMetrics());
+            lm = locationMap.get(location);
+        }
+        return lm;
+    }
+
+    static int getBucket(long latency) {
+        return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(Math.max(latency, 0)));
+    }
+
+    static long getBucketUpperBound(int bucket) {
+        return (1L << bucket) - 1;
+    }
+
+    private static class OperationMetrics {
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong timeouts = new AtomicLong();
+        final AtomicLong stale = new AtomicLong();
+        final AtomicLong cacheHits = new AtomicLong();
+        final AtomicLong totalLatency = new AtomicLong();
+        final AtomicLong maxLatency = new AtomicLong();
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKET_COUNT);
+        final ConcurrentMap<Integer,AtomicLong> statusMap = new ConcurrentHashMap<>();
+
+        void recordLatency(long latency) {
+            if (latency >= 0) {
+                histogram.incrementAndGet(getBucket(latency));
+                totalLatency.addAndGet(latency);
+                long max;
+                do {
+                    max = maxLatency.get();
+                } while (latency > max && !maxLatency.compareAndSet(max, latency));
+            }
+        }
+
+        OperationSnapshot snapshot() {
+            long[] h = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                h[i] = histogram.get(i);
+            }
+            Map<Integer,Long> status = new TreeMap<>();
+            for (Map.Entry<Integer,AtomicLong> e : statusMap.entrySet()) {
+                status.put(e.getKey(), e.getValue().get());
+            }
+            return new OperationSnapshot(requests.get(), errors.get(), failures.get(), timeouts.get(), stale.get(), cacheHits.get(), totalLatency.get(), maxLatency.get(), h, status);
+        }
+    }
+
+    private static class LocationMetrics {
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+    }
+
+    /**
+     * A point-in-time copy of all plugin metrics.
+     */
+    public static class Snapshot {
+        private final Map<SimpliSafeOperation,OperationSnapshot> operations;
+        private final Map<String,long[]> locations;
+
+        Snapshot(Map<SimpliSafeOperation,OperationSnapshot> operations, Map<String,long[]> locations) {
+            this.operations = Collections.unmodifiableMap(operations);
+            this.locations = locations;
+        }
+
+        public OperationSnapshot getOperation(SimpliSafeOperation op) {
+            return operations.get(op);
+        }
+
+        public Set<String> getLocations() {
+            return Collections.unmodifiableSet(locations.keySet());
+        }
+
+        public long getLocationRequestCount(String location) {
+            long[] l = locations.get(location);
+            return (l != null) ? l[0] : 0;
+        }
+
+        public long getLocationErrorCount(String location) {
+            long[] l = locations.get(location);
+            return (l != null) ? l[1] : 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<SimpliSafeOperation,OperationSnapshot> e : operations.entrySet()) {
+                if (sb.length() > 0) {
+                    sb.append("; ");
+                }
+                sb.append(e.getKey()).append(": ").append(e.getValue());
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * A point-in-time copy of the metrics for a single operation type.
+     */
+    public static class OperationSnapshot {
+        private final long requestCount;
+        private final long errorCount;
+        private final long failureCount;
+        private final long timeoutCount;
+        private final long staleCount;
+        private final long cacheHitCount;
+        private final long totalLatency;
+        private final long maxLatency;
+        private final long[] histogram;
+        private final Map<Integer,Long> statusCounts;
+
+        OperationSnapshot(long requestCount, long errorCount, long failureCount, long timeoutCount, long staleCount, long cacheHitCount, long totalLatency, long maxLatency, long[] histogram, Map<Integer,Long> statusCounts) {
+            this.requestCount = requestCount;
+            this.errorCount = errorCount;
+            this.failureCount = failureCount;
+            this.timeoutCount = timeoutCount;
+            this.staleCount = staleCount;
+            this.cacheHitCount = cacheHitCount;
+            this.totalLatency = totalLatency;
+            this.maxLatency = maxLatency;
+            this.histogram = histogram;
+            this.statusCounts = Collections.unmodifiableMap(statusCounts);
+        }
+
+        public long getRequestCount() {
+            return requestCount;
+        }
+
+        /**
+         * Returns the number of responses received with a non-200 status code.
+         *
+         * @return a long
+         */
+        public long getErrorCount() {
+            return errorCount;
+        }
+
+        /**
+         * Returns the number of requests that failed without a response.
+         *
+         * @return a long
+         */
+        public long getFailureCount() {
+            return failureCount;
+        }
+
+        /**
+         * Returns the number of requests that passed their deadline without a response.
+         *
+         * @return a long
+         */
+        public long getTimeoutCount() {
+            return timeoutCount;
+        }
+
+        /**
+         * Returns the number of responses that were dropped because their request had timed out or been superseded.
+         *
+         * @return a long
+         */
+        public long getStaleCount() {
+            return staleCount;
+        }
+
+        /**
+         * Returns the number of requests that were served from a local cache without being sent.
+         *
+         * @return a long
+         */
+        public long getCacheHitCount() {
+            return cacheHitCount;
+        }
+
+        public long getMaxLatency() {
+            return maxLatency;
+        }
+
+        public Map<Integer,Long> getStatusCounts() {
+            return statusCounts;
+        }
+
+        /**
+         * Returns the number of completed (responded or failed) requests.
+         *
+         * @return a long
+         */
+        public long getCompletedCount() {
+            long count = 0;
+            for (long l : histogram) {
+                count += l;
+            }
+            return count;
+        }
+
+        public long getMeanLatency() {
+            long count = getCompletedCount();
+            return (count > 0) ? totalLatency / count : 0;
+        }
+
+        /**
+         * Returns an approximate latency percentile. The value is the upper bound of the histogram bucket the
+         * percentile falls into.
+         *
+         * @param percentile the percentile (e.g. 99.0)
+         *
+         * @return the latency in milliseconds
+         */
+        public long getLatencyPercentile(double percentile) {
+            long count = getCompletedCount();
+            if (count == 0) {
+                return 0;
+            }
+            long target = (long)Math.ceil(count * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= target) {
+                    return Math.min(getBucketUpperBound(i), maxLatency);
+                }
+            }
+            return maxLatency;
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + requestCount + ", errors=" + errorCount + ", failures=" + failureCount +
+                ", timeouts=" + timeoutCount + ", stale=" + staleCount + ", cached=" + cacheHitCount + ", mean=" + getMeanLatency() + "ms, p50=" + getLatencyPercentile(50) + "ms, p99=" +
+                getLatencyPercentile(99) + "ms, max=" + maxLatency + "ms, status=" + statusCounts;
+        }
+    }
+}
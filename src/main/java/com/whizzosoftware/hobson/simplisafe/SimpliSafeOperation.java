@@ -0,0 +1,21 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+/**
+ * The types of requests the plugin sends to SimpliSafe.
+ *
+ * @author Dan Noguerol
+ */
+public enum SimpliSafeOperation {
+    LOGIN,
+    LOCATIONS,
+    GET_STATE,
+    SET_STATE,
+    EVENTS
+}
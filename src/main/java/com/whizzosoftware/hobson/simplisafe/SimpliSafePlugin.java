@@ -14,35 +14,92 @@ import com.whizzosoftware.hobson.api.plugin.http.HttpRequest;
 import com.whizzosoftware.hobson.api.plugin.http.HttpResponse;
 import com.whizzosoftware.hobson.api.property.PropertyContainer;
 import com.whizzosoftware.hobson.api.property.TypedProperty;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A plugin for SimpliSafe security systems.
  *
  * @author Dan Noguerol
  */
-public class SimpliSafePlugin extends AbstractHttpClientPlugin implements SimpliSafeClient {
+public class SimpliSafePlugin extends AbstractHttpClientPlugin implements SimpliSafeAsyncClient, SimpliSafeEventClient {
     private static final Logger logger = LoggerFactory.getLogger(SimpliSafePlugin.class);
 
-    private static final String BASE_URL = "https://simplisafe.com";
-    private static final String CTX_LOGIN = "login";
-    private static final String CTX_LOCATIONS = "locations";
-    private static final String CTX_GET_STATE = "gstate:";
-    private static final String CTX_SET_STATE = "sstate:";
+    static final String DEFAULT_BASE_URL = "https://simplisafe.com";
+    private static final String PROP_ADDITIONAL_ACCOUNTS = "additionalAccounts";
+    private static final String PROP_BASE_URL = "baseUrl";
+    private static final String PROP_POLL_FLOOR = "pollFloor";
+    private static final String PROP_POLL_CEILING = "pollCeiling";
+    private static final String PROP_STAGGER_POLLING = "staggerPolling";
+    private static final String PROP_BULK_REFRESH = "bulkRefresh";
+    private static final String PROP_HEARTBEAT_INTERVAL = "heartbeatInterval";
+    private static final String PROP_LOGIN_RATE_LIMIT = "loginRateLimit";
+    private static final String PROP_SET_STATE_RATE_LIMIT = "setStateRateLimit";
+    private static final String PROP_POLL_RATE_LIMIT = "pollRateLimit";
+    private static final String PROP_REDISCOVERY_INTERVAL = "rediscoveryInterval";
+    private static final String PROP_EVENT_STREAM = "eventStream";
+    private static final String PROP_RECONCILE_INTERVAL = "reconcileInterval";
+    private static final String PROP_STATE_CACHE_TTL = "stateCacheTtl";
+    private static final long TICK_INTERVAL = 1; // seconds
+    private static final long SETUP_INTERVAL = 10000; // milliseconds
+    private static final long REQUEST_TIMEOUT = 30000; // milliseconds
+    private static final long EVENT_POLL_TIMEOUT = 25000; // milliseconds
+    private static final long EVENT_RETRY_DELAY = 1000; // milliseconds
+    private static final long ASYNC_TIMEOUT = 180000; // milliseconds
+    private static final long CONFIRM_TIMEOUT = 30000; // milliseconds
+    private static final long CONFIRM_POLL_INTERVAL = 2000; // milliseconds
+    private static final long SESSION_LIFETIME = 4 * 60 * 60 * 1000; // milliseconds; used when cookies have no expiration
+    private static final String SESSION_FILE = "session.json";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final long SESSION_RENEWAL_MARGIN = 5 * 60 * 1000; // milliseconds
+    private static final int MAX_REPLAY_REQUESTS = 32;
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_OPEN_DURATION = 60000; // milliseconds
+    private static final int DEFAULT_POLL_FLOOR = 10; // seconds
+    private static final int DEFAULT_POLL_CEILING = 120; // seconds
+    private static final int DEFAULT_REDISCOVERY_INTERVAL = 3600; // seconds
+    private static final int DEFAULT_RECONCILE_INTERVAL = 300; // seconds
+    private static final int DEFAULT_STATE_CACHE_TTL = 5; // seconds
+    private static final double DEFAULT_LOGIN_RATE_LIMIT = 2; // per minute
+    private static final double DEFAULT_SET_STATE_RATE_LIMIT = 1; // per second
+    private static final double DEFAULT_POLL_RATE_LIMIT = 5; // per second
 
-    private String username;
-    private String password;
+    private final ConcurrentMap<String,SimpliSafeAccount> accountMap = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String,SimpliSafeAccount> locationAccountMap = new ConcurrentHashMap<>();
     private String uuid = UUID.randomUUID().toString();
-    private SimpliSafeSession session;
-    private Map<String,SimpliSafeBaseStation> baseStationMap = new HashMap<>();
+    private volatile String baseUrl = DEFAULT_BASE_URL;
+    private final ConcurrentMap<String,SimpliSafeBaseStation> baseStationMap = new ConcurrentHashMap<>();
+    private SimpliSafePollScheduler pollScheduler = new SimpliSafePollScheduler(DEFAULT_POLL_FLOOR * 1000, DEFAULT_POLL_CEILING * 1000);
+    private SimpliSafeRequestRegistry requestRegistry = new SimpliSafeRequestRegistry();
+    private final SimpliSafeWaiterRegistry waiterRegistry = new SimpliSafeWaiterRegistry();
+    private final SimpliSafeRetryPolicy setupRetryPolicy = new SimpliSafeRetryPolicy(Integer.MAX_VALUE, SETUP_INTERVAL, 300000);
+    private final SimpliSafeRetryPolicy getStateRetryPolicy = new SimpliSafeRetryPolicy(2, 2000, 10000);
+    private final SimpliSafeRetryPolicy setStateRetryPolicy = new SimpliSafeRetryPolicy(4, 1000, 16000);
+    private final SimpliSafeCircuitBreaker circuitBreaker = new SimpliSafeCircuitBreaker(CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_DURATION);
+    private final List<PendingRetry> retryList = new ArrayList<>();
+    private final SimpliSafeRateLimiter rateLimiter = new SimpliSafeRateLimiter(DEFAULT_LOGIN_RATE_LIMIT, DEFAULT_SET_STATE_RATE_LIMIT, DEFAULT_POLL_RATE_LIMIT);
+    private final Map<String,String> deferredSetStateMap = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String,PendingConfirmation> confirmationMap = new ConcurrentHashMap<>();
+    private final SimpliSafeStateCache stateCache = new SimpliSafeStateCache(DEFAULT_STATE_CACHE_TTL * 1000);
+    private final SimpliSafeMetrics metrics = new SimpliSafeMetrics();
+    private volatile boolean started;
+    private volatile boolean bulkRefresh;
+    private volatile long heartbeatInterval;
+    private volatile long rediscoveryInterval = DEFAULT_REDISCOVERY_INTERVAL * 1000;
+    private volatile long reconcileInterval = DEFAULT_RECONCILE_INTERVAL * 1000;
+    private volatile SimpliSafeEventSource eventSource;
 
     public SimpliSafePlugin(String pluginId) {
         super(pluginId);
@@ -59,13 +116,14 @@ public class SimpliSafePlugin extends AbstractHttpClientPlugin implements Simpli
     }
 
     /**
-     * Indicates how often the onRefresh method will be called.
+     * Indicates how often the onRefresh method will be called. This is a short tick; the poll scheduler decides
+     * whether any individual base station is actually due for a state request.
      *
      * @return number of seconds
      */
     @Override
     public long getRefreshInterval() {
-        return 10; // seconds
+        return TICK_INTERVAL;
     }
 
     /**
@@ -78,6 +136,20 @@ public class SimpliSafePlugin extends AbstractHttpClientPlugin implements Simpli
         return new TypedProperty[] {
                 new TypedProperty.Builder("username", "Username", "Your SimpliSafe account username", TypedProperty.Type.STRING).build(),
                 new TypedProperty.Builder("password", "Password", "Your SimpliSafe account password", TypedProperty.Type.SECURE_STRING).build(),
+                new TypedProperty.Builder(PROP_ADDITIONAL_ACCOUNTS, "Additional accounts", "Other SimpliSafe accounts to monitor as username:password pairs separated by semicolons", TypedProperty.Type.SECURE_STRING).build(),
+                new TypedProperty.Builder(PROP_BASE_URL, "Service URL", "The base URL of the SimpliSafe service (defaults to " + DEFAULT_BASE_URL + ")", TypedProperty.Type.STRING).build(),
+                new TypedProperty.Builder(PROP_POLL_FLOOR, "Minimum poll interval", "The fastest rate (in seconds) at which a base station will be polled for its state", TypedProperty.Type.NUMBER).build(),
+                new TypedProperty.Builder(PROP_POLL_CEILING, "Maximum poll interval", "The slowest rate (in seconds) at which a base station will be polled while its state is unchanged", TypedProperty.Type.NUMBER).build(),
+                new TypedProperty.Builder(PROP_BULK_REFRESH, "Bulk refresh", "Refresh all base stations with a single locations request instead of one request per base station", TypedProperty.Type.BOOLEAN).build(),
+                new TypedProperty.Builder(PROP_HEARTBEAT_INTERVAL, "Heartbeat interval", "How often (in seconds) an unchanged base station state is re-published; leave empty to only publish changes", TypedProperty.Type.NUMBER).build(),
+                new TypedProperty.Builder(PROP_POLL_RATE_LIMIT, "Poll rate limit", "The maximum number of background state requests sent per second", TypedProperty.Type.NUMBER).build(),
+                new TypedProperty.Builder(PROP_SET_STATE_RATE_LIMIT, "Set state rate limit", "The maximum number of arm/disarm requests sent per second", TypedProperty.Type.NUMBER).build(),
+                new TypedProperty.Builder(PROP_LOGIN_RATE_LIMIT, "Login rate limit", "The maximum number of login requests sent per minute", TypedProperty.Type.NUMBER).build(),
+                new TypedProperty.Builder(PROP_REDISCOVERY_INTERVAL, "Rediscovery interval", "How often (in seconds) each account is checked for added or removed base stations (defaults to " + DEFAULT_REDISCOVERY_INTERVAL + ")", TypedProperty.Type.NUMBER).build(),
+                new TypedProperty.Builder(PROP_EVENT_STREAM, "Event stream", "Receive state changes over a long-lived event connection and only poll occasionally to reconcile state; requires a service URL with a compatible event endpoint (not available from " + DEFAULT_BASE_URL + ")", TypedProperty.Type.BOOLEAN).build(),
+                new TypedProperty.Builder(PROP_RECONCILE_INTERVAL, "Reconciliation interval", "How often (in seconds) base stations are polled while the event stream is healthy (defaults to " + DEFAULT_RECONCILE_INTERVAL + ")", TypedProperty.Type.NUMBER).build(),
+                new TypedProperty.Builder(PROP_STATE_CACHE_TTL, "State cache lifetime", "How long (in seconds) a received base station state is reused instead of requesting it again; 0 disables the cache (defaults to " + DEFAULT_STATE_CACHE_TTL + ")", TypedProperty.Type.NUMBER).build(),
+                new TypedProperty.Builder(PROP_STAGGER_POLLING, "Stagger polling", "Spread base station state requests across the poll interval instead of sending them all at once", TypedProperty.Type.BOOLEAN).build(),
         };
     }
 
@@ -89,6 +161,7 @@ public class SimpliSafePlugin extends AbstractHttpClientPlugin implements Simpli
     @Override
     public void onStartup(PropertyContainer config) {
         logger.debug("SimpliSafe plugin is starting");
+        started = true;
         // attempt to process in case the configuration is already valid
         processConfiguration(config);
     }
@@ -117,18 +190,7 @@ public class SimpliSafePlugin extends AbstractHttpClientPlugin implements Simpli
      */
     @Override
     public void onRefresh() {
-        // if credentials are set but there's no active session, attempt to login
-        if (hasCredentials() && !hasSession()) {
-            performLoginRequest();
-        // if there's a valid session but no base stations have been found, do a location query
-        } else if (hasSession() && !hasBaseStations()) {
-            performLocationsRequest();
-        // otherwise, if there's a valid session, give all known base stations an opportunity to update their state
-        } else if (hasSession()) {
-            for (SimpliSafeBaseStation c : baseStationMap.values()) {
-                c.onRefresh();
-            }
-        }
+        refresh(false);
     }
 
     /**
@@ -139,39 +201,76 @@ public class SimpliSafePlugin extends AbstractHttpClientPlugin implements Simpli
      */
     @Override
     public void onHttpResponse(HttpResponse response, Object context) {
-        String ctx = (String)context;
+        if (!(context instanceof SimpliSafeRequestContext)) {
+            logger.error("Received response with unrecognized context: {}", context);
+            return;
+        }
+
+        SimpliSafeRequestContext ctx = (SimpliSafeRequestContext)context;
+        int statusCode = response.getStatusCode();
+
+        // a response for a request that timed out or has been superseded must not overwrite newer state
+        if (!requestRegistry.release(ctx)) {
+            logger.debug("Ignoring stale response for {} ({})", ctx, statusCode);
+            metrics.onStale(ctx.getOperation());
+            return;
+        }
 
         try {
-            String s = response.getBody();
-            logger.trace("Received HTTP response ({}): {}", response.getStatusCode(), s);
-            switch (response.getStatusCode()) {
+            metrics.onResponse(ctx.getOperation(), ctx.getLocation(), statusCode, getLatency(ctx));
+            if (statusCode != 200 && logger.isTraceEnabled()) {
+                readBody(response);
+            }
+            if (isServerFailure(statusCode)) {
+                onRequestFailed(ctx);
+            } else {
+                onRequestSucceeded();
+            }
+            switch (statusCode) {
                 case 200:
-                    if (CTX_LOGIN.equals(ctx)) {
-                        processLoginResponse(response.getCookies(), parseJSON(s));
-                    } else if (CTX_LOCATIONS.equals(ctx)) {
-                        processLocationsResponse(parseJSON(s));
-                    } else if (ctx.startsWith(CTX_GET_STATE)) {
-                        processGetStateResponse(ctx.substring(CTX_GET_STATE.length()), parseJSON(s));
-                    } else if (ctx.startsWith(CTX_SET_STATE)) {
-                        processSetStateResponse(ctx.substring(CTX_SET_STATE.length()), parseJSON(s));
-                    } else {
-                        logger.error("Received unrecognized response type: {}", context);
+                    switch (ctx.getOperation()) {
+                        case LOGIN:
+                            processLoginResponse(ctx.getAccount(), response.getCookies(), response.getHeaders(), parseJSON(readBody(response)));
+                            break;
+                        case LOCATIONS:
+                            processLocationsResponse(ctx.getAccount(), parseJSON(readBody(response)), ctx.getCorrelationId());
+                            break;
+                        case GET_STATE:
+                            processGetStateResponse(ctx.getLocation(), readResponseCode(response), ctx.getCorrelationId());
+                            break;
+                        case SET_STATE:
+                            processSetStateResponse(ctx.getLocation(), readResponseCode(response), ctx.getCorrelationId());
+                            break;
+                        case EVENTS:
+                            processEventsResponse(ctx.getAccount(), parseJSON(readBody(response)));
+                            break;
                     }
                     break;
                 case 401:
-                    if (CTX_LOGIN.equals(ctx)) {
-                        invalidateCredentials();
+                    if (ctx.getOperation() == SimpliSafeOperation.LOGIN) {
+                        ctx.getAccount().getSessionManager().endLogin();
+                        invalidateCredentials(ctx.getAccount());
                     } else {
-                        logger.error("Detected invalid session; will login again");
-                        clearSession();
-                        onRefresh();
+                        processUnauthorizedResponse(ctx);
                     }
                     break;
                 default:
-                    logger.error("Received unexpected status code for {}: {}", context, response.getStatusCode());
+                    if (ctx.getOperation() == SimpliSafeOperation.LOGIN) {
+                        ctx.getAccount().getSessionManager().endLogin();
+                    } else if (!isServerFailure(statusCode)) {
+                        // server failures have already been handled by onRequestFailed()
+                        if (ctx.getOperation() == SimpliSafeOperation.EVENTS) {
+                            onEventFailure(ctx.getAccount());
+                        } else if (ctx.getLocation() != null) {
+                            waiterRegistry.fail(ctx.getOperation(), ctx.getLocation(), new IOException("Received unexpected status code: " + statusCode));
+                        }
+                    }
+                    logger.error("Received unexpected status code for {}: {}", ctx, statusCode);
             }
         } catch (IOException e) {
             logger.error("Error processing HTTP response", e);
+        } finally {
+            sendPendingSetState(ctx);
         }
     }
 
@@ -184,6 +283,15 @@ public class SimpliSafePlugin extends AbstractHttpClientPlugin implements Simpli
     @Override
     public void onHttpRequestFailure(Throwable cause, Object context) {
         logger.error("Request failure for " + context, cause);
+        if (context instanceof SimpliSafeRequestContext) {
+            SimpliSafeRequestContext ctx = (SimpliSafeRequestContext)context;
+            // a failure for a request that has already timed out has already been handled
+            if (requestRegistry.release(ctx)) {
+                metrics.onFailure(ctx.getOperation(), ctx.getLocation(), getLatency(ctx));
+                onRequestFailed(ctx);
+                sendPendingSetState(ctx);
+            }
+        }
     }
 
     /**
@@ -194,34 +302,171 @@ public class SimpliSafePlugin extends AbstractHttpClientPlugin implements Simpli
     protected void processConfiguration(PropertyContainer config) {
         String u = config.getStringPropertyValue("username");
         String p = config.getStringPropertyValue("password");
+        String b = config.getStringPropertyValue(PROP_BASE_URL);
+        b = (b != null && b.trim().length() > 0) ? b.trim() : DEFAULT_BASE_URL;
+        if (!b.equals(baseUrl)) {
+            logger.debug("Service URL has changed to {}", b);
+            // request templates are built from the base URL so the sessions must be re-established
+            for (SimpliSafeAccount a : accountMap.values()) {
+                resetSession(a);
+            }
+            baseUrl = b;
+        }
+
+        pollScheduler.setIntervals(
+            getIntervalProperty(config, PROP_POLL_FLOOR, DEFAULT_POLL_FLOOR),
+            getIntervalProperty(config, PROP_POLL_CEILING, DEFAULT_POLL_CEILING)
+        );
+        pollScheduler.setStaggered(getBooleanProperty(config, PROP_STAGGER_POLLING));
+        bulkRefresh = getBooleanProperty(config, PROP_BULK_REFRESH);
+        rateLimiter.setRates(
+            getRateProperty(config, PROP_LOGIN_RATE_LIMIT, DEFAULT_LOGIN_RATE_LIMIT),
+            getRateProperty(config, PROP_SET_STATE_RATE_LIMIT, DEFAULT_SET_STATE_RATE_LIMIT),
+            getRateProperty(config, PROP_POLL_RATE_LIMIT, DEFAULT_POLL_RATE_LIMIT)
+        );
+        heartbeatInterval = getIntervalProperty(config, PROP_HEARTBEAT_INTERVAL, 0);
+        rediscoveryInterval = getIntervalProperty(config, PROP_REDISCOVERY_INTERVAL, DEFAULT_REDISCOVERY_INTERVAL);
+        reconcileInterval = getIntervalProperty(config, PROP_RECONCILE_INTERVAL, DEFAULT_RECONCILE_INTERVAL);
+        stateCache.setTtl(Math.max(0, getLongProperty(config, PROP_STATE_CACHE_TTL, DEFAULT_STATE_CACHE_TTL)) * 1000);
+        boolean events = getBooleanProperty(config, PROP_EVENT_STREAM);
+        if (events && DEFAULT_BASE_URL.equals(baseUrl)) {
+            // the long-poll endpoint is only served by compatible event servers, not the SimpliSafe service itself
+            logger.error("The event stream requires a service URL with a compatible event endpoint; falling back to polling");
+            events = false;
+        }
+        if (events && eventSource == null) {
+            eventSource = createEventSource();
+        } else if (!events) {
+            eventSource = null;
+        }
+        for (SimpliSafeBaseStation c : baseStationMap.values()) {
+            c.setHeartbeatInterval(heartbeatInterval);
+        }
+
+        Map<String,SimpliSafeCredentials> creds = new LinkedHashMap<>();
+        if (u != null && p != null) {
+            creds.put(u, new SimpliSafeCredentials(u, p));
+        }
+        parseAccounts(config.getStringPropertyValue(PROP_ADDITIONAL_ACCOUNTS), creds);
+
+        // accounts that are no longer configured are removed along with their base stations
+        for (SimpliSafeAccount a : accountMap.values()) {
+            if (!creds.containsKey(a.getUsername())) {
+                logger.debug("Account {} has been removed", a);
+                removeAccount(a);
+            }
+        }
+
+        boolean changed = false;
+        for (SimpliSafeCredentials c : creds.values()) {
+            SimpliSafeAccount a = accountMap.get(c.getUsername());
+            if (a == null) {
+                logger.debug("Account {} has been added", c.getUsername());
+                a = new SimpliSafeAccount(
+                    c,
+                    new SimpliSafeSessionManager(SESSION_RENEWAL_MARGIN, REQUEST_TIMEOUT, MAX_REPLAY_REQUESTS),
+                    createSessionStore(c.getUsername(), c.getUsername().equals(u))
+                );
+                accountMap.put(c.getUsername(), a);
+                // resume the previous session if one was saved
+                restoreSession(a);
+                changed = true;
+            } else if (a.getCredentials() == null || !c.getPassword().equals(a.getCredentials().getPassword())) {
+                logger.debug("Password for {} has changed", a);
+                resetSession(a);
+                a.setCredentials(c);
+                changed = true;
+            }
+        }
 
-        if (u != null && p != null && !u.equals(username) && !p.equals(username)) {
-            logger.debug("Username and password has changed");
-            clearSession();
-            username = u;
-            password = p;
-            onRefresh(); // force an update
-        } else if (username == null && password == null) {
+        if (changed) {
+            refresh(true); // force an update
+        } else if (accountMap.isEmpty()) {
             setStatus(PluginStatus.notConfigured("Username and password not configured"));
         }
     }
 
+    /**
+     * Parses a list of username:password pairs separated by semicolons or newlines.
+     *
+     * @param s the string to parse (or null)
+     * @param creds the Map to add the parsed credentials to
+     */
+    private void parseAccounts(String s, Map<String,SimpliSafeCredentials> creds) {
+        if (s != null) {
+            for (String entry : s.split("[;\\n]")) {
+                entry = entry.trim();
+                int ix = entry.indexOf(':');
+                if (ix > 0 && ix < entry.length() - 1) {
+                    String u = entry.substring(0, ix).trim();
+                    if (!creds.containsKey(u)) {
+                        creds.put(u, new SimpliSafeCredentials(u, entry.substring(ix + 1)));
+                    }
+                } else if (entry.length() > 0) {
+                    logger.error("Ignoring invalid account entry; expected username:password");
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes an account along with its session and base stations.
+     *
+     * @param a the account
+     */
+    protected void removeAccount(SimpliSafeAccount a) {
+        accountMap.remove(a.getUsername(), a);
+        resetSession(a);
+        resetEventSource(a);
+        a.getSessionStore().clear();
+        for (String location : a.getLocations()) {
+            removeBaseStation(location);
+        }
+    }
+
+    private SimpliSafeSessionStore createSessionStore(String username, boolean primary) {
+        // the primary account keeps the original file name so that its saved session survives an upgrade
+        String name = primary ? SESSION_FILE : "session-" + toHex(username) + ".json";
+        return new SimpliSafeSessionStore(started ? getDataFile(name) : null);
+    }
+
+    /**
+     * Encodes a string as the hex of its UTF-8 bytes (a file-name safe encoding that, unlike a hash, can't collide).
+     *
+     * @param s the string
+     *
+     * @return a String
+     */
+    private static String toHex(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : s.getBytes(UTF8)) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
     /**
      * Send a login request to SimpliSafe.
+     *
+     * @param a the account to login
      */
-    protected void performLoginRequest() {
-        if (username != null && password != null) {
+    protected void performLoginRequest(SimpliSafeAccount a) {
+        SimpliSafeCredentials c = a.getCredentials();
+        if (c != null) {
             try {
-                String path = BASE_URL + "/mobile/login";
-                String body = "name=" + username + "&pass=" + password + "&device_name=SimpliSafe&device_uuid=" + uuid + "&version=1200&no_persist=1&XDEBUG_SESSION_START=session_name";
+                String path = baseUrl + "/mobile/login";
+                String body = "name=" + c.getUsername() + "&pass=" + c.getPassword() + "&device_name=SimpliSafe&device_uuid=" + uuid + "&version=1200&no_persist=1&XDEBUG_SESSION_START=session_name";
                 logger.debug("Sending login request to {}: {}", path, body);
+                SimpliSafeRequestContext ctx = new SimpliSafeRequestContext(SimpliSafeOperation.LOGIN, a, null, null, null, 0, System.currentTimeMillis(), REQUEST_TIMEOUT);
+                requestRegistry.acquire(ctx);
+                metrics.onRequest(SimpliSafeOperation.LOGIN, null);
                 sendHttpRequest(
                     new URI(path),
                     HttpRequest.Method.POST,
                     null,
                     null,
                     body.getBytes(),
-                    CTX_LOGIN
+                    ctx
                 );
             } catch (URISyntaxException e) {
                 logger.error("Error logging in", e);
@@ -234,21 +479,34 @@ public class SimpliSafePlugin extends AbstractHttpClientPlugin implements Simpli
     /**
      * Processes a login response from SimpliSafe.
      *
+     * @param a the account the login was for
      * @param cookies any cookies found in the response
+     * @param headers the response headers (the session expires with the first of its cookies to expire)
      * @param json the JSON-formatted response body
      */
-    protected void processLoginResponse(Collection<Cookie> cookies, JSONObject json) {
+    protected void processLoginResponse(SimpliSafeAccount a, Collection<Cookie> cookies, Map<String,List<String>> headers, JSONObject json) {
         logger.trace("Received login response: {} with cookies {}", json, cookies);
+        a.getSessionManager().endLogin();
+        a.setSetupFailures(0);
         if (json.has("return_code")) {
             switch (json.getInt("return_code")) {
                 case 0:
-                    invalidateCredentials();
+                    invalidateCredentials(a);
                     break;
                 case 1:
-                    session = new SimpliSafeSession(json.getString("session"), json.getString("uid"), cookies);
-                    logger.debug("Received a successful login for user: {}", json.getString("username"));
-                    setStatus(PluginStatus.running());
-                    onRefresh(); // force an update
+                    try {
+                        SimpliSafeSession s = new SimpliSafeSession(json.getString("session"), json.getString("uid"), cookies, baseUrl, getSessionExpiration(headers), a.getLocations());
+                        a.getSessionManager().setSession(s);
+                        stateCache.invalidateAll(a.getLocations());
+                        saveSession(a);
+                        logger.debug("Received a successful login for user: {}", json.getString("username"));
+                        setStatus(PluginStatus.running());
+                        replayRequests(a);
+                        refresh(true, a); // force an update of this account
+                    } catch (URISyntaxException e) {
+                        logger.error("Error creating session", e);
+                        setStatus(PluginStatus.failed("Invalid service URL: " + baseUrl));
+                    }
                     break;
                 default:
                     logger.error("Received an unexpected login return_code: {}", json.getInt("return_code"));
@@ -259,49 +517,220 @@ public class SimpliSafePlugin extends AbstractHttpClientPlugin implements Simpli
     }
 
     /**
-     * Sends a request for a list of locations to SimpliSafe.
+     * Returns the expiration of a new session from the cookies of its login response. If no cookie has an expiration
+     * (or it has already passed, e.g. because of clock skew), a fixed session lifetime is used.
+     *
+     * @param headers the login response headers
+     *
+     * @return the expiration in epoch milliseconds
      */
-    protected void performLocationsRequest() {
-        if (hasSession()) {
-            try {
-                String path = BASE_URL + "/mobile/" + session.getUid() + "/locations";
-                String body = "no_persist=0&XDEBUG_SESSION_START=session_name";
-                logger.debug("Sending locations request to {}: {}", path, body);
-                sendHttpRequest(
-                    new URI(path),
-                    HttpRequest.Method.POST,
-                    null,
-                    session.getCookies(),
-                    body.getBytes(),
-                    CTX_LOCATIONS
-                );
-            } catch (URISyntaxException e) {
-                logger.error("Error performing location query", e);
+    private long getSessionExpiration(Map<String,List<String>> headers) {
+        long now = System.currentTimeMillis();
+        long expiration = SimpliSafeSession.parseCookieExpiration(headers, now);
+        if (expiration <= now) {
+            logger.debug("No usable cookie expiration found in login response; using default session lifetime");
+            expiration = now + SESSION_LIFETIME;
+        }
+        return expiration;
+    }
+
+    /**
+     * Processes a 401 response to a non-login request. A set state is queued for replay and, if the session it was
+     * sent with is still the active one, the session is discarded and a new login started. Only the first 401 for
+     * a session does this; later ones rely on the login already underway. A get state isn't replayed since every
+     * base station is polled once the new session is established.
+     *
+     * @param ctx the request context
+     */
+    protected void processUnauthorizedResponse(SimpliSafeRequestContext ctx) {
+        SimpliSafeAccount a = ctx.getAccount();
+        SimpliSafeSessionManager sm = a.getSessionManager();
+        if (ctx.getOperation() == SimpliSafeOperation.SET_STATE) {
+            sm.enqueue(new SimpliSafeSessionManager.ReplayRequest(ctx.getLocation(), ctx.getState()));
+        }
+        SimpliSafeSession s = ctx.getSession();
+        if (s != null && sm.clearSession(s)) {
+            logger.error("Detected invalid session for {}; will login again", a);
+            holdSetStates(a, requestRegistry.clear(a));
+            stateCache.invalidateAll(a.getLocations());
+            a.getSessionStore().clear();
+            resetEventSource(a);
+            refresh(true, a);
+        } else if (a.hasSession()) {
+            // the request was sent with a session that has since been replaced
+            replayRequests(a);
+        }
+        // otherwise a login is already underway and replays the request when it completes
+    }
+
+    /**
+     * Replays any requests that were held while no valid session was available for an account.
+     *
+     * @param a the account
+     */
+    protected void replayRequests(SimpliSafeAccount a) {
+        for (SimpliSafeSessionManager.ReplayRequest r : a.getSessionManager().drainReplayQueue()) {
+            logger.debug("Replaying {}", r);
+            if (r.isSetState()) {
+                performSetState(r.getLocation(), r.getState());
+            } else {
+                performGetState(r.getLocation());
+            }
+        }
+    }
+
+    /**
+     * Sends a request for a list of an account's locations to SimpliSafe.
+     *
+     * @param a the account
+     */
+    protected void performLocationsRequest(SimpliSafeAccount a) {
+        SimpliSafeSession s = a.getSession();
+        if (s != null) {
+            if (!rateLimiter.tryAcquire(SimpliSafeRateLimiter.OperationClass.BACKGROUND, System.currentTimeMillis())) {
+                logger.debug("Rate limit reached; deferring locations request");
+                return;
+            }
+            SimpliSafeRequestContext ctx = new SimpliSafeRequestContext(SimpliSafeOperation.LOCATIONS, a, null, null, s, 0, System.currentTimeMillis(), REQUEST_TIMEOUT);
+            if (!requestRegistry.acquire(ctx)) {
+                logger.debug("Locations request already in progress; ignoring");
+                return;
             }
+            SimpliSafeRequestTemplate t = s.getLocationsTemplate();
+            logger.debug("Sending locations request to {}", t.getURI());
+            metrics.onRequest(SimpliSafeOperation.LOCATIONS, null);
+            sendHttpRequest(
+                t.getURI(),
+                HttpRequest.Method.POST,
+                null,
+                s.getCookies(),
+                t.getBody(),
+                ctx
+            );
         } else {
             logger.error("No login session found; unable to perform location query");
         }
     }
 
     /**
-     * Processes a locations response from SimpliSafe.
+     * Processes a locations response from SimpliSafe. In bulk refresh mode, this also updates the state of every
+     * base station from its "system_state" value.
      *
+     * @param a the account the locations belong to
      * @param json the JSON-formatted response body
+     * @param correlationId the correlation ID of the request
      */
-    protected void processLocationsResponse(JSONObject json) {
-        logger.trace("Received locations response: {}", json);
+    protected void processLocationsResponse(SimpliSafeAccount a, JSONObject json, long correlationId) {
+        logger.trace("Received locations response for {}: {}", a, json);
+        a.setSetupFailures(0);
+        a.setNextDiscoveryTime(System.currentTimeMillis() + rediscoveryInterval);
+        boolean initial = a.getLocations().isEmpty();
         JSONObject locations = json.getJSONObject("locations");
+        boolean changed = false;
         for (Object o : locations.keySet()) {
-            String location = (String)o;
-            if (!baseStationMap.containsKey(location)) {
+            changed |= addBaseStation(a, (String)o);
+        }
+        // an empty list is more likely a service hiccup than an account with every base station removed
+        if (locations.length() > 0) {
+            for (String location : a.getLocations()) {
+                if (!locations.has(location)) {
+                    removeBaseStation(location);
+                    changed = true;
+                }
+            }
+        }
+        if (changed) {
+            saveSession(a);
+        }
+        if (bulkRefresh) {
+            processBulkState(a, locations, correlationId);
+        } else if (initial) {
+            refresh(true, a); // force an update of this account
+        }
+        // otherwise any newly added base stations are due immediately and are picked up by the next refresh
+    }
+
+    /**
+     * Publishes a base station if it hasn't already been published.
+     *
+     * @param a the account the base station belongs to
+     * @param location the location ID of the base station
+     *
+     * @return true if the base station was newly published
+     */
+    protected boolean addBaseStation(SimpliSafeAccount a, String location) {
+        if (!baseStationMap.containsKey(location)) {
+            SimpliSafeBaseStation ssc = new SimpliSafeBaseStation(this, location, this);
+            ssc.setHeartbeatInterval(heartbeatInterval);
+            // only the thread that registers the base station publishes it
+            if (baseStationMap.putIfAbsent(location, ssc) == null) {
                 // we found a new base station
-                logger.debug("Publishing base station: {}", location);
-                SimpliSafeBaseStation ssc = new SimpliSafeBaseStation(this, location, this);
+                logger.debug("Publishing base station for {}: {}", a, location);
+                locationAccountMap.put(location, a);
+                a.getLocations().add(location);
                 publishDevice(ssc);
-                baseStationMap.put(location, ssc);
+                pollScheduler.add(location, System.currentTimeMillis());
+                SimpliSafeSession s = a.getSession();
+                if (s != null) {
+                    try {
+                        s.addLocation(location);
+                    } catch (URISyntaxException e) {
+                        logger.error("Error creating request templates for " + location, e);
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes a base station.
+     *
+     * @param location the location ID of the base station
+     */
+    protected void removeBaseStation(String location) {
+        if (baseStationMap.remove(location) != null) {
+            logger.debug("Removing base station: {}", location);
+            unpublishDevice(location);
+        }
+        SimpliSafeAccount a = locationAccountMap.remove(location);
+        if (a != null) {
+            a.getLocations().remove(location);
+            SimpliSafeSession s = a.getSession();
+            if (s != null) {
+                s.removeLocation(location);
+            }
+        }
+        pollScheduler.remove(location);
+        stateCache.invalidate(location);
+        deferredSetStateMap.remove(location);
+        confirmationMap.remove(location);
+        requestRegistry.takePendingState(location);
+        metrics.removeLocation(location);
+        waiterRegistry.fail(SimpliSafeOperation.GET_STATE, location, new IllegalStateException("Base station has been removed"));
+        waiterRegistry.fail(SimpliSafeOperation.SET_STATE, location, new IllegalStateException("Base station has been removed"));
+    }
+
+    /**
+     * Updates base station state from the location entries of a locations response. Any base station whose entry
+     * is missing or has an unrecognized state falls back to an individual get state request.
+     *
+     * @param a the account the locations belong to
+     * @param locations the "locations" object from a locations response
+     * @param correlationId the correlation ID of the locations request
+     */
+    protected void processBulkState(SimpliSafeAccount a, JSONObject locations, long correlationId) {
+        for (String location : a.getLocations()) {
+            JSONObject loc = locations.optJSONObject(location);
+            int code = (loc != null) ? SimpliSafeBaseStation.parseSystemState(loc.optString("system_state", null)) : SimpliSafeBaseStation.STATE_UNKNOWN;
+            if (code != SimpliSafeBaseStation.STATE_UNKNOWN) {
+                processState(location, code, correlationId);
+            } else {
+                logger.debug("No usable bulk state found for {}; falling back to get state", location);
+                performGetState(location);
             }
         }
-        onRefresh(); // force an update
     }
 
     /**
@@ -311,22 +740,120 @@ public class SimpliSafePlugin extends AbstractHttpClientPlugin implements Simpli
      */
     @Override
     public void performGetState(String location) {
-        if (hasSession() && location != null) {
+        sendGetState(location, 0);
+    }
+
+    /**
+     * Requests the state of a location. The future completes with the next state received for the location, so a
+     * request that is coalesced with one already in progress (or deferred by the rate limit and served by the
+     * next poll) still completes.
+     *
+     * @param location the location for which state is being requested
+     *
+     * @return a future that completes with the state code
+     */
+    @Override
+    public SimpliSafeFuture<Integer> getState(String location) {
+        if (location == null || !baseStationMap.containsKey(location)) {
+            return SimpliSafeFuture.failed(new IllegalArgumentException("Unknown base station: " + location));
+        }
+        long now = System.currentTimeMillis();
+        SimpliSafeFuture<Integer> f = new SimpliSafeFuture<>();
+        waiterRegistry.add(SimpliSafeOperation.GET_STATE, location, f, now + ASYNC_TIMEOUT);
+        // if the request is rate limited, this makes sure the next poll isn't far off
+        pollScheduler.onActivity(location, now);
+        sendGetState(location, 0);
+        return f;
+    }
+
+    /**
+     * Requests a change to the state of a location. The future completes with the state code reported once the
+     * latest requested state for the location has been sent (i.e. a newer request for the same location
+     * supersedes this one) or fails if the request could not be completed.
+     *
+     * @param location the location for which state is being set
+     * @param state the new state value (off, home, away)
+     *
+     * @return a future that completes with the resulting state code
+     */
+    @Override
+    public SimpliSafeFuture<Integer> setState(String location, String state) {
+        if (location == null || !baseStationMap.containsKey(location)) {
+            return SimpliSafeFuture.failed(new IllegalArgumentException("Unknown base station: " + location));
+        } else if (SimpliSafeBaseStation.parseSystemState(state) == SimpliSafeBaseStation.STATE_UNKNOWN) {
+            return SimpliSafeFuture.failed(new IllegalArgumentException("Invalid state: " + state));
+        }
+        state = SimpliSafeBaseStation.getStateName(SimpliSafeBaseStation.parseSystemState(state));
+        long now = System.currentTimeMillis();
+        SimpliSafeFuture<Integer> f = new SimpliSafeFuture<>();
+        waiterRegistry.add(SimpliSafeOperation.SET_STATE, location, f, now + ASYNC_TIMEOUT);
+        // if the base station published the new state optimistically, it's confirmed by fast polling
+        confirmationMap.put(location, new PendingConfirmation(now + CONFIRM_TIMEOUT, now + CONFIRM_POLL_INTERVAL));
+        sendSetState(location, state, 0);
+        return f;
+    }
+
+    /**
+     * Sends a request for location state to SimpliSafe unless a fresh state for the location is cached.
+     *
+     * @param location the location for which state is being requested
+     * @param attempt the number of previous attempts for this request
+     */
+    protected void sendGetState(String location, int attempt) {
+        sendGetState(location, attempt, true);
+    }
+
+    /**
+     * Sends a request for location state to SimpliSafe.
+     *
+     * @param location the location for which state is being requested
+     * @param attempt the number of previous attempts for this request
+     * @param useCache whether a fresh cached state can be used in place of the request
+     */
+    protected void sendGetState(String location, int attempt, boolean useCache) {
+        SimpliSafeAccount a = (location != null) ? locationAccountMap.get(location) : null;
+        SimpliSafeSession s = (a != null) ? a.getSession() : null;
+        if (s != null) {
+            long now = System.currentTimeMillis();
+            int code = useCache ? stateCache.get(location, now) : SimpliSafeBaseStation.STATE_UNKNOWN;
+            if (code != SimpliSafeBaseStation.STATE_UNKNOWN) {
+                // the base station already has this state so only waiters need to hear about it
+                logger.trace("Using cached state for {}: {}", location, code);
+                metrics.onCacheHit(SimpliSafeOperation.GET_STATE);
+                waiterRegistry.complete(SimpliSafeOperation.GET_STATE, location, code);
+                return;
+            }
+            if (requestRegistry.isInFlight(SimpliSafeOperation.GET_STATE, location) || !rateLimiter.tryAcquire(SimpliSafeRateLimiter.OperationClass.BACKGROUND, now)) {
+                logger.trace("Get state for {} already in progress or rate limited; ignoring", location);
+                return;
+            }
+            SimpliSafeRequestContext ctx = new SimpliSafeRequestContext(SimpliSafeOperation.GET_STATE, a, location, null, s, attempt, now, REQUEST_TIMEOUT);
+            if (!requestRegistry.acquire(ctx)) {
+                logger.trace("Get state for {} already in progress; ignoring", location);
+                return;
+            }
             logger.trace("Performing get state for {}", location);
             try {
+                SimpliSafeRequestTemplate t = s.getGetStateTemplate(location);
+                metrics.onRequest(SimpliSafeOperation.GET_STATE, location);
                 sendHttpRequest(
-                    new URI(BASE_URL + "/mobile/" + session.getUid() + "/sid/" + location + "/get-state"),
+                    t.getURI(),
                     HttpRequest.Method.POST,
                     null,
-                    session.getCookies(),
-                    ("no_persist=0&XDEBUG_SESSION_START=session_name").getBytes(),
-                    CTX_GET_STATE + location
+                    s.getCookies(),
+                    t.getBody(),
+                    ctx
                 );
             } catch (URISyntaxException e) {
+                requestRegistry.release(ctx);
                 logger.error("Error performing get state query", e);
             }
+        } else if (a != null && a.hasCredentials()) {
+            logger.debug("No session available; queueing get state for {}", location);
+            a.getSessionManager().enqueue(new SimpliSafeSessionManager.ReplayRequest(location, null));
         } else {
             logger.error("Full login information not available; unable to perform status query");
+            waiterRegistry.fail(SimpliSafeOperation.GET_STATE, location, new IllegalStateException("Not logged in to SimpliSafe"));
         }
     }
 
@@ -334,13 +861,44 @@ public class SimpliSafePlugin extends AbstractHttpClientPlugin implements Simpli
      * Processes a get state response from SimpliSafe.
      *
      * @param location the location the response is associated with
-     * @param json the JSON-formatted response body
+     * @param code the response code from the response body
+     * @param correlationId the correlation ID of the request
      */
-    protected void processGetStateResponse(String location, JSONObject json) {
-        logger.trace("Received get state response: {}", json);
+    protected void processGetStateResponse(String location, int code, long correlationId) {
+        logger.trace("Received get state response for {}: {}", location, code);
+        if (code != SimpliSafeBaseStation.STATE_UNKNOWN) {
+            processState(location, code, correlationId);
+        } else {
+            logger.error("Received get state response for {} with no response code", location);
+            waiterRegistry.fail(SimpliSafeOperation.GET_STATE, location, new IOException("Received state response with no response code"));
+        }
+    }
+
+    /**
+     * Processes a state code for a base station. A state from a request sent before the one that produced the
+     * base station's current state (e.g. a poll sent before a set state that has since been confirmed) is out of
+     * date and is ignored.
+     *
+     * @param location the location the state is associated with
+     * @param code the state code
+     * @param correlationId the correlation ID of the request the state came from
+     */
+    protected void processState(String location, int code, long correlationId) {
         SimpliSafeBaseStation c = baseStationMap.get(location);
         if (c != null) {
-            c.onState(json);
+            if (c.isStale(correlationId)) {
+                logger.debug("Ignoring out of date state for {}: {}", location, code);
+                // anyone waiting on a state can have the newer one
+                waiterRegistry.complete(SimpliSafeOperation.GET_STATE, location, c.getStateCode());
+                return;
+            }
+            long now = System.currentTimeMillis();
+            pollScheduler.onState(location, c.onState(code, correlationId), now);
+            // a state received while a change is underway may predate it so it isn't reused
+            if (!c.isPending() && !deferredSetStateMap.containsKey(location) && !requestRegistry.isInFlight(SimpliSafeOperation.SET_STATE, location)) {
+                stateCache.put(location, code, now);
+            }
+            waiterRegistry.complete(SimpliSafeOperation.GET_STATE, location, code);
         } else {
             logger.error("Received state for unknown base station: {}", location);
         }
@@ -354,61 +912,741 @@ public class SimpliSafePlugin extends AbstractHttpClientPlugin implements Simpli
      */
     @Override
     public void performSetState(String location, String state) {
-        if (hasSession() && location != null) {
+        sendSetState(location, state, 0);
+    }
+
+    /**
+     * Sends a request to set location state to SimpliSafe. Set state requests are not blocked by the circuit
+     * breaker since they are user-initiated.
+     *
+     * @param location the location for which state is being set
+     * @param state the new state value (off, home, away)
+     * @param attempt the number of previous attempts for this request
+     */
+    protected void sendSetState(String location, String state, int attempt) {
+        SimpliSafeAccount a = (location != null) ? locationAccountMap.get(location) : null;
+        SimpliSafeSession s = (a != null) ? a.getSession() : null;
+        if (s != null) {
+            // the cached state is about to be out of date
+            stateCache.invalidate(location);
+            // only one set state per location is sent at a time; the latest requested state is sent when it completes
+            SimpliSafeRequestContext ctx = new SimpliSafeRequestContext(SimpliSafeOperation.SET_STATE, a, location, state, s, attempt, System.currentTimeMillis(), REQUEST_TIMEOUT);
+            long now = ctx.getSendTime();
+            if (!requestRegistry.acquire(ctx)) {
+                logger.debug("Set state for {} already in progress; queueing {}", location, state);
+                requestRegistry.setPendingState(location, state);
+                return;
+            }
+            // this request supersedes any earlier state that's still waiting to be sent
+            deferredSetStateMap.remove(location);
+            // if the rate limit has been reached, the request is sent on a subsequent refresh ahead of any polling
+            if (!rateLimiter.tryAcquire(SimpliSafeRateLimiter.OperationClass.SET_STATE, now)) {
+                logger.debug("Rate limit reached; deferring set state for {}: {}", location, state);
+                requestRegistry.release(ctx);
+                deferredSetStateMap.put(location, state);
+                return;
+            }
             logger.debug("Performing set state: {}, {}", location, state);
+            // a state change is likely so make sure the station is polled at the fastest rate
+            pollScheduler.onActivity(location, System.currentTimeMillis());
             try {
+                SimpliSafeRequestTemplate t = s.getSetStateTemplate(location, state);
+                metrics.onRequest(SimpliSafeOperation.SET_STATE, location);
                 sendHttpRequest(
-                    new URI(BASE_URL + "/mobile/" + session.getUid() + "/sid/" + location + "/set-state"),
+                    t.getURI(),
                     HttpRequest.Method.POST,
                     null,
-                    session.getCookies(),
-                    ("state=" + state + "&mobile=1&no_persist=0&XDEBUG_SESSION_START=session_name").getBytes(),
-                    CTX_SET_STATE + location
+                    s.getCookies(),
+                    t.getBody(),
+                    ctx
                 );
             } catch (URISyntaxException e) {
+                requestRegistry.release(ctx);
                 logger.error("Error performing get state query", e);
             }
+        } else if (a != null && a.hasCredentials()) {
+            // the state change will be sent as soon as a new session is established
+            logger.debug("No session available; queueing set state for {}: {}", location, state);
+            a.getSessionManager().enqueue(new SimpliSafeSessionManager.ReplayRequest(location, state));
         } else {
             logger.error("Full login information not available; unable to set state");
+            waiterRegistry.fail(SimpliSafeOperation.SET_STATE, location, new IllegalStateException("Not logged in to SimpliSafe"));
         }
     }
 
+    /**
+     * Sends an event long-poll request for an account to SimpliSafe.
+     *
+     * @param a the account
+     * @param cursor the position in the event stream to continue from (or null to start from now)
+     */
+    @Override
+    public void performEventRequest(SimpliSafeAccount a, String cursor) {
+        SimpliSafeSession s = a.getSession();
+        if (s != null && eventSource != null) {
+            // the server holds the request for up to the poll timeout so the request timeout is extended to match
+            SimpliSafeRequestContext ctx = new SimpliSafeRequestContext(SimpliSafeOperation.EVENTS, a, null, null, s, 0, System.currentTimeMillis(), EVENT_POLL_TIMEOUT + REQUEST_TIMEOUT);
+            if (!requestRegistry.acquire(ctx)) {
+                logger.trace("Event request for {} already in progress; ignoring", a);
+                return;
+            }
+            try {
+                URI uri = s.getEventsURI(cursor, EVENT_POLL_TIMEOUT / 1000);
+                logger.trace("Sending event request to {}", uri);
+                metrics.onRequest(SimpliSafeOperation.EVENTS, null);
+                sendHttpRequest(
+                    uri,
+                    HttpRequest.Method.GET,
+                    null,
+                    s.getCookies(),
+                    null,
+                    ctx
+                );
+            } catch (URISyntaxException e) {
+                requestRegistry.release(ctx);
+                logger.error("Error performing event request", e);
+            }
+        }
+    }
+
+    /**
+     * Processes an event response from SimpliSafe. Each event carries the new state code of a base station.
+     *
+     * @param a the account the events belong to
+     * @param json the JSON-formatted response body
+     */
+    protected void processEventsResponse(SimpliSafeAccount a, JSONObject json) {
+        logger.trace("Received events response for {}: {}", a, json);
+        JSONArray events = json.optJSONArray("events");
+        if (events != null) {
+            for (int i = 0; i < events.length(); i++) {
+                JSONObject e = events.optJSONObject(i);
+                String location = (e != null) ? e.optString("location", null) : null;
+                if (location != null && a.getLocations().contains(location)) {
+                    int code = e.optInt("state", SimpliSafeBaseStation.STATE_UNKNOWN);
+                    if (code != SimpliSafeBaseStation.STATE_UNKNOWN) {
+                        // an event is newer than any request sent before it arrived
+                        processState(location, code, SimpliSafeRequestContext.newCorrelationId());
+                    }
+                }
+            }
+        }
+        SimpliSafeEventSource es = eventSource;
+        if (es != null) {
+            es.onEvents(a, json.optString("cursor", null), System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Creates the event source used when the event stream is enabled. Subclasses can override this to receive
+     * events some other way.
+     *
+     * @return a SimpliSafeEventSource
+     */
+    protected SimpliSafeEventSource createEventSource() {
+        return new SimpliSafeLongPollEventSource(this, EVENT_POLL_TIMEOUT, new SimpliSafeRetryPolicy(Integer.MAX_VALUE, EVENT_RETRY_DELAY, 300000));
+    }
+
     /**
      * Processes a set state response from SimpliSafe.
      *
      * @param location the location the response is associated with
-     * @param json the JSON-formatted response body
+     * @param code the response code from the response body
+     * @param correlationId the correlation ID of the request
      */
-    protected void processSetStateResponse(String location, JSONObject json) {
-        logger.trace("Received set state response for {}: {}", location, json);
+    protected void processSetStateResponse(String location, int code, long correlationId) {
+        logger.trace("Received set state response for {}: {}", location, code);
         // the response body format is identical to "get state" so just call its process method to handle it
-        processGetStateResponse(location, json);
+        processGetStateResponse(location, code, correlationId);
+        // anyone waiting on a set state is told the outcome once the latest requested state has been sent
+        if (code == SimpliSafeBaseStation.STATE_UNKNOWN) {
+            waiterRegistry.fail(SimpliSafeOperation.SET_STATE, location, new IOException("Received set state response with no response code"));
+        } else if (!requestRegistry.hasPendingState(location) && !deferredSetStateMap.containsKey(location)) {
+            waiterRegistry.complete(SimpliSafeOperation.SET_STATE, location, code);
+        }
     }
 
-    private boolean hasCredentials() {
-        return (username != null && password != null);
+    /**
+     * Performs the periodic work for the plugin: logging in, discovering base stations and polling any base
+     * stations whose poll interval has elapsed.
+     *
+     * @param force if true, login/discovery is not throttled and all base stations are polled regardless of schedule
+     */
+    protected void refresh(boolean force) {
+        refresh(force, null);
     }
 
-    private boolean hasSession() {
-        return (session != null);
+    /**
+     * Performs the periodic work for the plugin: logging in, discovering base stations and polling any base
+     * stations whose poll interval has elapsed.
+     *
+     * @param force if true, login/discovery is not throttled and all base stations are polled regardless of schedule
+     * @param account if not null, the force flag only applies to this account and its base stations
+     */
+    protected void refresh(boolean force, SimpliSafeAccount account) {
+        long now = System.currentTimeMillis();
+
+        processTimeouts(now);
+
+        // an expired session is discarded so that a new login occurs immediately
+        for (SimpliSafeAccount a : accountMap.values()) {
+            SimpliSafeSession s = a.getSession();
+            if (s != null && s.isExpired(now)) {
+                logger.debug("Session for {} has expired; will login again", a);
+                clearSession(a);
+                a.setNextSetupTime(now);
+            }
+        }
+
+        // if the circuit breaker is open, no background requests are sent; if it's half-open, only a single probe
+        // request is sent
+        boolean allowed = circuitBreaker.allowRequest(now);
+        boolean probe = allowed && circuitBreaker.isHalfOpen();
+
+        // user-initiated set states aren't held back by the circuit breaker and unconfirmed state changes are
+        // still rolled back on time
+        processDeferredSetStates();
+        processRetries(now, allowed && !probe);
+        processConfirmations(now, allowed && !probe);
+
+        if (!allowed) {
+            return;
+        }
+
+        // each account logs in and discovers its base stations independently of the others
+        for (SimpliSafeAccount a : accountMap.values()) {
+            if (refreshAccount(a, force && (account == null || account == a), probe, now) && probe) {
+                return;
+            }
+        }
+
+        if (probe) {
+            // poll a single base station as the probe
+            for (String location : baseStationMap.keySet()) {
+                SimpliSafeAccount a = locationAccountMap.get(location);
+                if (a != null && a.hasSession()) {
+                    pollScheduler.onPoll(location, now);
+                    if (bulkRefresh) {
+                        performLocationsRequest(a);
+                    } else {
+                        performGetState(location);
+                    }
+                    break;
+                }
+            }
+            return;
+        }
+
+        // keep an event request outstanding for every account that's ready for one
+        SimpliSafeEventSource es = eventSource;
+        if (es != null) {
+            for (SimpliSafeAccount a : accountMap.values()) {
+                if (a.hasSession() && !a.getLocations().isEmpty() && !requestRegistry.isInFlight(SimpliSafeOperation.EVENTS, a)) {
+                    es.refresh(a, now);
+                }
+            }
+        }
+
+        // when staggering, a forced update spreads the polls across the window rather than sending them all now
+        if (force && pollScheduler.isStaggered()) {
+            if (account != null) {
+                pollScheduler.spread(account.getLocations(), now);
+            } else {
+                pollScheduler.spread(now);
+            }
+            force = false;
+        }
+        if (bulkRefresh) {
+            // in bulk mode, a single locations request refreshes every base station of an account if any of them are due
+            for (SimpliSafeAccount a : accountMap.values()) {
+                if (!a.hasSession() || a.getLocations().isEmpty()) {
+                    continue;
+                }
+                boolean due = force && (account == null || account == a);
+                long minInterval = getMinPollInterval(es, a, now);
+                for (String location : a.getLocations()) {
+                    due |= pollScheduler.isDue(location, now, minInterval);
+                }
+                if (due && rateLimiter.canAcquire(SimpliSafeRateLimiter.OperationClass.BACKGROUND, now)) {
+                    for (String location : a.getLocations()) {
+                        pollScheduler.onPoll(location, now);
+                    }
+                    performLocationsRequest(a);
+                }
+            }
+        } else {
+            for (Map.Entry<String,SimpliSafeBaseStation> e : baseStationMap.entrySet()) {
+                // once the rate limit is reached, remaining base stations stay due until the next refresh
+                if (!rateLimiter.canAcquire(SimpliSafeRateLimiter.OperationClass.BACKGROUND, now)) {
+                    break;
+                }
+                SimpliSafeAccount a = locationAccountMap.get(e.getKey());
+                if (a == null || !a.hasSession()) {
+                    continue;
+                }
+                if ((force && (account == null || account == a)) || pollScheduler.isDue(e.getKey(), now, getMinPollInterval(es, a, now))) {
+                    pollScheduler.onPoll(e.getKey(), now);
+                    e.getValue().onRefresh();
+                }
+            }
+        }
     }
 
-    private void clearSession() {
-        session = null;
+    /**
+     * Returns the minimum time between polls for an account's base stations. While the account's event stream is
+     * healthy, polling only reconciles state occasionally.
+     *
+     * @param es the event source (or null if the event stream is disabled)
+     * @param a the account
+     * @param now the current time
+     *
+     * @return the interval in milliseconds
+     */
+    private long getMinPollInterval(SimpliSafeEventSource es, SimpliSafeAccount a, long now) {
+        return (es != null && es.isHealthy(a, now)) ? reconcileInterval : 0;
     }
 
-    private void invalidateCredentials() {
-        logger.error("Configured credentials appear to be invalid; resetting them");
-        username = null;
-        password = null;
-        setStatus(PluginStatus.failed("Username and/or password are invalid"));
+    /**
+     * Logs an account in and discovers its base stations as needed.
+     *
+     * @param a the account
+     * @param force if true, login/discovery is not throttled
+     * @param probe true if the circuit breaker is half-open and only a single request should be sent
+     * @param now the current time
+     *
+     * @return true if a request was sent
+     */
+    private boolean refreshAccount(SimpliSafeAccount a, boolean force, boolean probe, long now) {
+        SimpliSafeSessionManager sm = a.getSessionManager();
+
+        // if credentials are set but there's no active session (or it's about to expire), attempt to login; only one
+        // login per account is allowed in flight and the current session remains in use while it is being renewed
+        if (a.hasCredentials() && (!a.hasSession() || sm.needsRenewal(now))) {
+            if ((a.hasSession() || force || probe || now >= a.getNextSetupTime()) && sm.beginLogin(now)) {
+                if (!rateLimiter.tryAcquire(SimpliSafeRateLimiter.OperationClass.LOGIN, a.getUsername(), now)) {
+                    logger.debug("Login rate limit reached for {}; deferring login", a);
+                    sm.endLogin();
+                    return false;
+                }
+                if (a.hasSession()) {
+                    logger.debug("Renewing session for {} ahead of expiration", a);
+                }
+                a.setNextSetupTime(now + SETUP_INTERVAL);
+                performLoginRequest(a);
+                if (probe) {
+                    return true;
+                }
+            }
+        }
+
+        // if there's a valid session but no base stations have been found, do a location query
+        if (a.hasSession() && a.getLocations().isEmpty() && (force || probe || now >= a.getNextSetupTime())) {
+            a.setNextSetupTime(now + SETUP_INTERVAL);
+            performLocationsRequest(a);
+            return true;
+        }
+
+        // otherwise, periodically check for base stations that have been added or removed; this runs alongside the
+        // normal polling (in bulk mode every refresh is already a locations request so it isn't needed)
+        if (!probe && !bulkRefresh && a.hasSession() && now >= a.getNextDiscoveryTime()
+                && !requestRegistry.isInFlight(SimpliSafeOperation.LOCATIONS, a)
+                && rateLimiter.canAcquire(SimpliSafeRateLimiter.OperationClass.BACKGROUND, now)) {
+            // performLocationsRequest() takes the rate limit token
+            logger.debug("Rediscovering base stations for {}", a);
+            a.setNextDiscoveryTime(now + rediscoveryInterval);
+            performLocationsRequest(a);
+        }
+
+        return false;
     }
 
-    private boolean hasBaseStations() {
-        return !baseStationMap.isEmpty();
+    /**
+     * Called when a request has failed due to a network error or server-side failure. This updates the circuit
+     * breaker and schedules a retry according to the request's retry policy.
+     *
+     * @param ctx the request context
+     */
+    protected void onRequestFailed(SimpliSafeRequestContext ctx) {
+        long now = System.currentTimeMillis();
+        if (circuitBreaker.onFailure(now)) {
+            logger.error("Too many consecutive request failures; pausing requests to SimpliSafe");
+            setStatus(PluginStatus.failed("Unable to communicate with SimpliSafe; will retry shortly"));
+        }
+        int attempt = ctx.getAttempt() + 1;
+        switch (ctx.getOperation()) {
+            case LOGIN:
+            case LOCATIONS:
+                SimpliSafeAccount a = ctx.getAccount();
+                a.setSetupFailures(a.getSetupFailures() + 1);
+                a.setNextSetupTime(now + setupRetryPolicy.getDelay(a.getSetupFailures()));
+                break;
+            case GET_STATE:
+                scheduleRetry(getStateRetryPolicy, ctx.getLocation(), null, attempt, now);
+                break;
+            case SET_STATE:
+                // a newer pending state supersedes the one that failed
+                if (!requestRegistry.hasPendingState(ctx.getLocation())) {
+                    scheduleRetry(setStateRetryPolicy, ctx.getLocation(), ctx.getState(), attempt, now);
+                }
+                break;
+            case EVENTS:
+                onEventFailure(ctx.getAccount());
+                break;
+        }
+    }
+
+    /**
+     * Removes any requests that have passed their deadline without a response and treats them as failures. Any
+     * response that arrives for them afterwards is dropped as stale. Callers that are still waiting on a result
+     * after the async timeout are failed.
+     *
+     * @param now the current time
+     */
+    private void processTimeouts(long now) {
+        waiterRegistry.expire(now);
+        List<SimpliSafeRequestContext> expired = requestRegistry.expire(now);
+        if (expired != null) {
+            for (SimpliSafeRequestContext ctx : expired) {
+                logger.debug("Request {} timed out", ctx);
+                metrics.onTimeout(ctx.getOperation(), ctx.getLocation());
+                if (ctx.getOperation() == SimpliSafeOperation.LOGIN) {
+                    ctx.getAccount().getSessionManager().endLogin();
+                }
+                onRequestFailed(ctx);
+                sendPendingSetState(ctx);
+            }
+        }
+    }
+
+    /**
+     * Called when a response has been received from SimpliSafe that indicates the service is available.
+     */
+    protected void onRequestSucceeded() {
+        if (circuitBreaker.onSuccess()) {
+            logger.info("Communication with SimpliSafe has been restored");
+            setStatus(PluginStatus.running());
+        }
+    }
+
+    private void scheduleRetry(SimpliSafeRetryPolicy policy, String location, String state, int attempt, long now) {
+        if (policy.shouldRetry(attempt)) {
+            long delay = policy.getDelay(attempt);
+            logger.debug("Retrying {} for {} in {}ms (attempt {})", state != null ? "set state" : "get state", location, delay, attempt + 1);
+            synchronized (retryList) {
+                retryList.add(new PendingRetry(location, state, attempt, now + delay));
+            }
+        } else {
+            logger.error("Giving up on {} for {} after {} attempts", state != null ? "set state" : "get state", location, attempt);
+            waiterRegistry.fail(state != null ? SimpliSafeOperation.SET_STATE : SimpliSafeOperation.GET_STATE, location, new IOException("Request failed after " + attempt + " attempts"));
+        }
+    }
+
+    /**
+     * Sends any retries that are due.
+     *
+     * @param now the current time
+     * @param includeGetState false if get state retries should be held (e.g. because the circuit breaker is open)
+     */
+    private void processRetries(long now, boolean includeGetState) {
+        List<PendingRetry> due = null;
+        synchronized (retryList) {
+            for (Iterator<PendingRetry> it = retryList.iterator(); it.hasNext(); ) {
+                PendingRetry r = it.next();
+                if (now >= r.dueTime && (includeGetState || r.state != null)) {
+                    if (due == null) {
+                        due = new ArrayList<>();
+                    }
+                    due.add(r);
+                    it.remove();
+                }
+            }
+        }
+        if (due != null) {
+            for (PendingRetry r : due) {
+                if (r.state == null) {
+                    sendGetState(r.location, r.attempt);
+                } else if (!requestRegistry.isInFlight(SimpliSafeOperation.SET_STATE, r.location) && !requestRegistry.hasPendingState(r.location)) {
+                    sendSetState(r.location, r.state, r.attempt);
+                }
+            }
+        }
+    }
+
+    /**
+     * Polls base stations with an unconfirmed state change at a short interval and rolls back any state change
+     * that hasn't been confirmed in time. The first poll is sent one interval after the set state request since
+     * its response normally confirms the change; polling continues even while the request is outstanding since
+     * its response may have been lost.
+     *
+     * @param now the current time
+     * @param poll false if only deadlines should be enforced (e.g. because the circuit breaker is open)
+     */
+    private void processConfirmations(long now, boolean poll) {
+        for (Map.Entry<String,PendingConfirmation> e : confirmationMap.entrySet()) {
+            String location = e.getKey();
+            PendingConfirmation pc = e.getValue();
+            SimpliSafeBaseStation c = baseStationMap.get(location);
+            if (c == null || !c.isPending()) {
+                confirmationMap.remove(location, pc);
+            } else if (now >= pc.deadline) {
+                confirmationMap.remove(location, pc);
+                c.rollbackStateChange(c.getPendingCode(), "timed out");
+            } else if (poll && now >= pc.nextPollTime && !deferredSetStateMap.containsKey(location)) {
+                pc.nextPollTime = now + CONFIRM_POLL_INTERVAL;
+                sendGetState(location, 0, false);
+            }
+        }
+    }
+
+    /**
+     * Sends any set state requests that were deferred due to rate limiting.
+     */
+    private void processDeferredSetStates() {
+        for (String location : deferredSetStateMap.keySet()) {
+            String state = deferredSetStateMap.remove(location);
+            if (state != null) {
+                sendSetState(location, state, 0);
+            }
+        }
+    }
+
+    private long getLatency(SimpliSafeRequestContext ctx) {
+        return System.currentTimeMillis() - ctx.getSendTime();
+    }
+
+    private boolean isServerFailure(int statusCode) {
+        return (statusCode >= 500 || statusCode == 429);
+    }
+
+    /**
+     * Sends the most recent set state that was requested for a location while a previous set state request was
+     * outstanding. If there's no session, it's held for replay once a new session is established.
+     *
+     * @param ctx the context of the request that just completed
+     */
+    private void sendPendingSetState(SimpliSafeRequestContext ctx) {
+        if (ctx.getOperation() == SimpliSafeOperation.SET_STATE) {
+            String location = ctx.getLocation();
+            String state = requestRegistry.takePendingState(location);
+            if (state != null) {
+                performSetState(location, state);
+            }
+        }
+    }
+
+    /**
+     * Attempts to resume a previously saved session for an account and publish its base stations so that polling
+     * can begin without a login or location discovery.
+     *
+     * @param a the account
+     */
+    protected void restoreSession(SimpliSafeAccount a) {
+        SimpliSafeSessionStore.Entry e = a.getSessionStore().load(a.getUsername(), baseUrl, System.currentTimeMillis());
+        if (e != null) {
+            logger.debug("Resuming saved session for {} with {} base station(s)", a, e.getLocations().size());
+            a.getSessionManager().setSession(e.getSession());
+            for (String location : e.getLocations()) {
+                addBaseStation(a, location);
+            }
+            setStatus(PluginStatus.running());
+        }
+    }
+
+    private void saveSession(SimpliSafeAccount a) {
+        SimpliSafeSession s = a.getSession();
+        if (s != null && a.hasCredentials()) {
+            a.getSessionStore().save(a.getUsername(), s, a.getLocations());
+        }
+    }
+
+    private void clearSession(SimpliSafeAccount a) {
+        a.getSessionManager().clearSession();
+        holdSetStates(a, requestRegistry.clear(a));
+        stateCache.invalidateAll(a.getLocations());
+        resetEventSource(a);
+    }
+
+    /**
+     * Clears an account's session along with any login in progress (e.g. because the credentials or service URL
+     * changed).
+     *
+     * @param a the account
+     */
+    private void resetSession(SimpliSafeAccount a) {
+        a.getSessionManager().clearSession();
+        a.getSessionManager().endLogin();
+        holdSetStates(a, requestRegistry.clearAll(a));
+        stateCache.invalidateAll(a.getLocations());
+        resetEventSource(a);
+    }
+
+    /**
+     * Holds set states whose requests were discarded along with a session so that they are sent once a new
+     * session is established.
+     *
+     * @param a the account
+     * @param states a Map of location ID to target state
+     */
+    private void holdSetStates(SimpliSafeAccount a, Map<String,String> states) {
+        for (Map.Entry<String,String> e : states.entrySet()) {
+            a.getSessionManager().enqueue(new SimpliSafeSessionManager.ReplayRequest(e.getKey(), e.getValue()));
+        }
+    }
+
+    private void onEventFailure(SimpliSafeAccount a) {
+        SimpliSafeEventSource es = eventSource;
+        if (es != null) {
+            logger.debug("Event request for {} failed; polling until it recovers", a);
+            es.onFailure(a, System.currentTimeMillis());
+        }
+    }
+
+    private void resetEventSource(SimpliSafeAccount a) {
+        SimpliSafeEventSource es = eventSource;
+        if (es != null) {
+            es.reset(a);
+        }
+    }
+
+    private void invalidateCredentials(SimpliSafeAccount a) {
+        logger.error("Configured credentials for {} appear to be invalid; resetting them", a);
+        a.setCredentials(null);
+        a.getSessionStore().clear();
+        setStatus(PluginStatus.failed("Username and/or password are invalid for " + a));
+    }
+
+    private long getIntervalProperty(PropertyContainer config, String name, int defaultValue) {
+        long l = getLongProperty(config, name, defaultValue);
+        return (l > 0 ? l : defaultValue) * 1000;
+    }
+
+    private long getLongProperty(PropertyContainer config, String name, int defaultValue) {
+        Object o = config.getPropertyValue(name);
+        long l = defaultValue;
+        if (o instanceof Number) {
+            l = ((Number)o).longValue();
+        } else if (o instanceof String) {
+            try {
+                l = Long.parseLong((String)o);
+            } catch (NumberFormatException e) {
+                logger.error("Invalid value for {}: {}", name, o);
+            }
+        }
+        return l;
+    }
+
+    private double getRateProperty(PropertyContainer config, String name, double defaultValue) {
+        Object o = config.getPropertyValue(name);
+        double d = defaultValue;
+        if (o instanceof Number) {
+            d = ((Number)o).doubleValue();
+        } else if (o instanceof String) {
+            try {
+                d = Double.parseDouble((String)o);
+            } catch (NumberFormatException e) {
+                logger.error("Invalid value for {}: {}", name, o);
+            }
+        }
+        return (d > 0) ? d : defaultValue;
+    }
+
+    private boolean getBooleanProperty(PropertyContainer config, String name) {
+        Object o = config.getPropertyValue(name);
+        return (o instanceof Boolean) ? (Boolean)o : (o instanceof String && Boolean.parseBoolean((String)o));
+    }
+
+    private String readBody(HttpResponse response) throws IOException {
+        String s = response.getBody();
+        logger.trace("Received HTTP response ({}): {}", response.getStatusCode(), s);
+        return s;
+    }
+
+    /**
+     * Extracts the response code from a get/set state response without building a JSON object. The body is only
+     * converted to a String when trace logging is enabled.
+     *
+     * @param response the HTTP response
+     *
+     * @return the response code (or SimpliSafeBaseStation.STATE_UNKNOWN if there is none)
+     *
+     * @throws IOException on failure
+     */
+    private int readResponseCode(HttpResponse response) throws IOException {
+        if (logger.isTraceEnabled()) {
+            return SimpliSafeResponseParser.parseResponseCode(readBody(response).getBytes("UTF-8"));
+        } else {
+            try (InputStream in = response.getBodyAsStream()) {
+                return SimpliSafeResponseParser.parseResponseCode(in);
+            }
+        }
+    }
+
+    /**
+     * Returns a point-in-time copy of the plugin's request metrics (counts, status codes and latency by operation
+     * and location).
+     *
+     * @return a SimpliSafeMetrics.Snapshot
+     */
+    public SimpliSafeMetrics.Snapshot getMetricsSnapshot() {
+        return metrics.getSnapshot();
+    }
+
+    /**
+     * Returns the last known state of a base station without making a request to SimpliSafe.
+     *
+     * @param location the location ID
+     *
+     * @return the state code (or SimpliSafeBaseStation.STATE_UNKNOWN if it is not known)
+     */
+    public int getCachedState(String location) {
+        SimpliSafeBaseStation c = baseStationMap.get(location);
+        return (c != null) ? c.getStateCode() : SimpliSafeBaseStation.STATE_UNKNOWN;
+    }
+
+    /**
+     * Returns the recent state transitions of a base station so that time-in-state can be determined without
+     * making a request to SimpliSafe.
+     *
+     * @param location the location ID
+     *
+     * @return a SimpliSafeStateHistory (or null if the base station is not known)
+     */
+    public SimpliSafeStateHistory getStateHistory(String location) {
+        SimpliSafeBaseStation c = baseStationMap.get(location);
+        return (c != null) ? c.getHistory() : null;
     }
 
     private JSONObject parseJSON(String s) {
         return new JSONObject(new JSONTokener(s));
     }
+
+    /**
+     * A state change waiting to be confirmed by a base station.
+     */
+    private static class PendingConfirmation {
+        final long deadline;
+        volatile long nextPollTime;
+
+        PendingConfirmation(long deadline, long nextPollTime) {
+            this.deadline = deadline;
+            this.nextPollTime = nextPollTime;
+        }
+    }
+
+    /**
+     * A failed get state (state is null) or set state request waiting to be retried.
+     */
+    private static class PendingRetry {
+        final String location;
+        final String state;
+        final int attempt;
+        final long dueTime;
+
+        PendingRetry(String location, String state, int attempt, long dueTime) {
+            this.location = location;
+            this.state = state;
+            this.attempt = attempt;
+            this.dueTime = dueTime;
+        }
+    }
 }
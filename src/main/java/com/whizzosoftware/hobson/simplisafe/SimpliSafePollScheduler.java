@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Keeps track of when each SimpliSafe base station should next be polled for its state. Stations are polled at
+ * the floor interval after any activity (a set state request or a state change) and back off towards the ceiling
+ * interval while their state remains unchanged.
+ *
+ * When staggering is enabled, polls are spread evenly (with jitter) across the polling window rather than being
+ * dispatched for all stations at the same instant.
+ *
+ * @author Dan Noguerol
+ */
+public class SimpliSafePollScheduler {
+    private static final int BACKOFF_FACTOR = 2;
+    private static final int JITTER_DIVISOR = 10;
+
+    private long floorInterval;
+    private long ceilingInterval;
+    private boolean staggered;
+    private final Map<String,PollState> stateMap = new LinkedHashMap<>();
+    private final Random random;
+
+    /**
+     * Constructor.
+     *
+     * @param floorInterval the minimum polling interval (in milliseconds)
+     * @param ceilingInterval the maximum polling interval (in milliseconds)
+     */
+    public SimpliSafePollScheduler(long floorInterval, long ceilingInterval) {
+        this(floorInterval, ceilingInterval, new Random());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param floorInterval the minimum polling interval (in milliseconds)
+     * @param ceilingInterval the maximum polling interval (in milliseconds)
+     * @param random the source of jitter
+     */
+    SimpliSafePollScheduler(long floorInterval, long ceilingInterval, Random random) {
+        this.random = random;
+        setIntervals(floorInterval, ceilingInterval);
+    }
+
+    /**
+     * Changes the polling interval bounds. Existing stations are clamped to the new bounds.
+     *
+     * @param floorInterval the minimum polling interval (in milliseconds)
+     * @param ceilingInterval the maximum polling interval (in milliseconds)
+     */
+    public synchronized void setIntervals(long floorInterval, long ceilingInterval) {
+        this.floorInterval = floorInterval;
+        this.ceilingInterval = Math.max(floorInterval, ceilingInterval);
+        for (PollState ps : stateMap.values()) {
+            ps.interval = clamp(ps.interval);
+        }
+    }
+
+    /**
+     * Sets whether polls should be staggered across the polling window.
+     *
+     * @param staggered the staggered flag
+     */
+    public synchronized void setStaggered(boolean staggered) {
+        this.staggered = staggered;
+    }
+
+    public synchronized boolean isStaggered() {
+        return staggered;
+    }
+
+    /**
+     * Adds a location to the scheduler. It will be due for polling immediately (or at a random point within the
+     * floor interval if staggering is enabled).
+     *
+     * @param location the location ID
+     * @param now the current time
+     */
+    public synchronized void add(String location, long now) {
+        if (!stateMap.containsKey(location)) {
+            stateMap.put(location, new PollState(floorInterval, staggered ? now + nextLong(floorInterval) : now));
+        }
+    }
+
+    /**
+     * Spreads the next poll time of all locations evenly across the floor interval starting at the current time.
+     * A random jitter of up to half a slot is added to each location. This is used in place of polling every
+     * location at once (e.g. right after a login).
+     *
+     * @param now the current time
+     */
+    public synchronized void spread(long now) {
+        spread(stateMap.keySet(), now);
+    }
+
+    /**
+     * Spreads the next poll time of a subset of locations (e.g. those belonging to a single account) evenly across
+     * the floor interval starting at the current time.
+     *
+     * @param locations the location IDs
+     * @param now the current time
+     */
+    public synchronized void spread(Collection<String> locations, long now) {
+        if (!locations.isEmpty()) {
+            long slot = floorInterval / locations.size();
+            int i = 0;
+            for (String location : locations) {
+                PollState ps = stateMap.get(location);
+                if (ps != null) {
+                    ps.nextPollTime = now + (i++ * slot) + nextLong(slot / 2);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a location from the scheduler.
+     *
+     * @param location the location ID
+     */
+    public synchronized void remove(String location) {
+        stateMap.remove(location);
+    }
+
+    /**
+     * Indicates whether a location is due to be polled given a minimum time between polls. This is used to drop
+     * to a slow reconciliation rate while state changes are being received some other way.
+     *
+     * @param location the location ID
+     * @param now the current time
+     * @param minInterval the minimum time (in milliseconds) since the location was last polled
+     *
+     * @return a boolean
+     */
+    public synchronized boolean isDue(String location, long now, long minInterval) {
+        PollState ps = getState(location, now);
+        return (now >= ps.nextPollTime && now - ps.lastPollTime >= minInterval);
+    }
+
+    /**
+     * Called when a state request has been sent for a location.
+     *
+     * @param location the location ID
+     * @param now the current time
+     */
+    public synchronized void onPoll(String location, long now) {
+        PollState ps = getState(location, now);
+        ps.lastPollTime = now;
+        ps.nextPollTime = now + jitter(ps.interval);
+    }
+
+    /**
+     * Called when there has been activity for a location that makes a state change likely (e.g. a set state
+     * request). This resets the location's interval to the floor.
+     *
+     * @param location the location ID
+     * @param now the current time
+     */
+    public synchronized void onActivity(String location, long now) {
+        PollState ps = getState(location, now);
+        ps.interval = floorInterval;
+        ps.nextPollTime = Math.min(ps.nextPollTime, now + floorInterval);
+    }
+
+    /**
+     * Called when a state has been received for a location. A changed state resets the location's interval to
+     * the floor while an unchanged state backs it off towards the ceiling.
+     *
+     * @param location the location ID
+     * @param changed whether the state received was different from the previous one
+     * @param now the current time
+     */
+    public synchronized void onState(String location, boolean changed, long now) {
+        PollState ps = getState(location, now);
+        if (changed) {
+            ps.interval = floorInterval;
+        } else {
+            ps.interval = clamp(ps.interval * BACKOFF_FACTOR);
+        }
+        ps.nextPollTime = now + jitter(ps.interval);
+    }
+
+    /**
+     * Returns the current polling interval for a location.
+     *
+     * @param location the location ID
+     *
+     * @return the interval in milliseconds
+     */
+    public synchronized long getInterval(String location) {
+        PollState ps = stateMap.get(location);
+        return (ps != null) ? ps.interval : floorInterval;
+    }
+
+    private PollState getState(String location, long now) {
+        PollState ps = stateMap.get(location);
+        if (ps == null) {
+            ps = new PollState(floorInterval, now);
+            stateMap.put(location, ps);
+        }
+        return ps;
+    }
+
+    private long jitter(long interval) {
+        if (staggered) {
+            long range = interval / JITTER_DIVISOR;
+            return interval - range + nextLong(range * 2);
+        } else {
+            return interval;
+        }
+    }
+
+    private long nextLong(long bound) {
+        return (bound > 0) ? (long)(random.nextDouble() * bound) : 0;
+    }
+
+    private long clamp(long interval) {
+        return Math.max(floorInterval, Math.min(ceilingInterval, interval));
+    }
+
+    private static class PollState {
+        long interval;
+        long nextPollTime;
+        long lastPollTime;
+
+        PollState(long interval, long nextPollTime) {
+            this.interval = interval;
+            this.nextPollTime = nextPollTime;
+        }
+    }
+}
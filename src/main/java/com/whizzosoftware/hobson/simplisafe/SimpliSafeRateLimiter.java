@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A client-side rate limiter for requests sent to SimpliSafe. Each class of operation has its own token bucket.
+ * Logins have their own (strict) budget per account while set state requests take priority over background polling
+ * by being allowed to borrow from the background budget when their own is exhausted.
+ *
+ * @author Dan Noguerol
+ */
+public class SimpliSafeRateLimiter {
+    public enum OperationClass {
+        LOGIN,
+        SET_STATE,
+        BACKGROUND
+    }
+
+    private final Map<String,TokenBucket> loginBucketMap = new HashMap<>();
+    private double loginsPerMinute;
+    private double setStatesPerSecond;
+    private double backgroundPerSecond;
+    private TokenBucket setStateBucket;
+    private TokenBucket backgroundBucket;
+
+    /**
+     * Constructor.
+     *
+     * @param loginsPerMinute the number of login requests allowed per minute
+     * @param setStatesPerSecond the number of set state requests allowed per second
+     * @param backgroundPerSecond the number of background (get state/locations) requests allowed per second
+     */
+    public SimpliSafeRateLimiter(double loginsPerMinute, double setStatesPerSecond, double backgroundPerSecond) {
+        setRates(loginsPerMinute, setStatesPerSecond, backgroundPerSecond);
+    }
+
+    /**
+     * Changes the allowed rates. Burst capacity is twice the per-period rate (and at least one request). Only the
+     * buckets whose rate changed are rebuilt (starting full); the others keep their remaining tokens.
+     *
+     * @param loginsPerMinute the number of login requests allowed per minute
+     * @param setStatesPerSecond the number of set state requests allowed per second
+     * @param backgroundPerSecond the number of background (get state/locations) requests allowed per second
+     */
+    public synchronized void setRates(double loginsPerMinute, double setStatesPerSecond, double backgroundPerSecond) {
+        if (loginsPerMinute != this.loginsPerMinute) {
+            this.loginsPerMinute = loginsPerMinute;
+            loginBucketMap.clear();
+        }
+        if (setStateBucket == null || setStatesPerSecond != this.setStatesPerSecond) {
+            this.setStatesPerSecond = setStatesPerSecond;
+            setStateBucket = new TokenBucket(Math.max(1, setStatesPerSecond * 2), setStatesPerSecond / 1000.0);
+        }
+        if (backgroundBucket == null || backgroundPerSecond != this.backgroundPerSecond) {
+            this.backgroundPerSecond = backgroundPerSecond;
+            backgroundBucket = new TokenBucket(Math.max(1, backgroundPerSecond * 2), backgroundPerSecond / 1000.0);
+        }
+    }
+
+    /**
+     * Attempts to take a token for an operation.
+     *
+     * @param op the operation class
+     * @param now the current time
+     *
+     * @return true if the operation may be sent now
+     */
+    public synchronized boolean tryAcquire(OperationClass op, long now) {
+        return tryAcquire(op, null, now);
+    }
+
+    /**
+     * Attempts to take a token for an operation on behalf of an account. Only logins are limited per account.
+     *
+     * @param op the operation class
+     * @param account the account username (or null)
+     * @param now the current time
+     *
+     * @return true if the operation may be sent now
+     */
+    public synchronized boolean tryAcquire(OperationClass op, String account, long now) {
+        switch (op) {
+            case LOGIN:
+                return getLoginBucket(account).tryAcquire(now);
+            case SET_STATE:
+                return (setStateBucket.tryAcquire(now) || backgroundBucket.tryAcquire(now));
+            default:
+                return backgroundBucket.tryAcquire(now);
+        }
+    }
+
+    /**
+     * Indicates whether a token is currently available for an operation without taking it.
+     *
+     * @param op the operation class
+     * @param now the current time
+     *
+     * @return a boolean
+     */
+    public synchronized boolean canAcquire(OperationClass op, long now) {
+        switch (op) {
+            case LOGIN:
+                return getLoginBucket(null).canAcquire(now);
+            case SET_STATE:
+                return (setStateBucket.canAcquire(now) || backgroundBucket.canAcquire(now));
+            default:
+                return backgroundBucket.canAcquire(now);
+        }
+    }
+
+    private TokenBucket getLoginBucket(String account) {
+        String key = (account != null) ? account : "";
+        TokenBucket b = loginBucketMap.get(key);
+        if (b == null) {
+            b = new TokenBucket(Math.max(1, loginsPerMinute), loginsPerMinute / 60000.0);
+            loginBucketMap.put(key, b);
+        }
+        return b;
+    }
+
+    private static class TokenBucket {
+        private final double capacity;
+        private final double refillPerMillisecond;
+        private double tokens;
+        private long lastRefill;
+
+        TokenBucket(double capacity, double refillPerMillisecond) {
+            this.capacity = capacity;
+            this.refillPerMillisecond = refillPerMillisecond;
+            this.tokens = capacity;
+        }
+
+        boolean tryAcquire(long now) {
+            refill(now);
+            if (tokens >= 1) {
+                tokens -= 1;
+                return true;
+            }
+            return false;
+        }
+
+        boolean canAcquire(long now) {
+            refill(now);
+            return (tokens >= 1);
+        }
+
+        private void refill(long now) {
+            if (lastRefill > 0 && now > lastRefill) {
+                tokens = Math.min(capacity, tokens + (now - lastRefill) * refillPerMillisecond);
+            }
+            lastRefill = now;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Describes a request sent to SimpliSafe. An instance is passed as the context object of each HTTP request so that
+ * the response can be routed directly by operation and correlated with the request that produced it.
+ *
+ * @author Dan Noguerol
+ */
+public class SimpliSafeRequestContext {
+    private static final AtomicLong nextCorrelationId = new AtomicLong();
+
+    private final SimpliSafeOperation operation;
+    private final SimpliSafeAccount account;
+    private final String location;
+    private final String state;
+    private final SimpliSafeSession session;
+    private final int attempt;
+    private final long correlationId;
+    private final long sendTime;
+    private final long deadline;
+
+    /**
+     * Constructor.
+     *
+     * @param operation the operation being performed
+     * @param account the account the request is being sent for
+     * @param location the location the request is for (or null if it is not location-specific)
+     * @param state the target state for set state requests (or null)
+     * @param session the session the request is being sent with (or null for login requests)
+     * @param attempt the number of previous attempts for this request
+     * @param sendTime the time the request is being sent
+     * @param timeout how long (in milliseconds) to wait for a response before the request is considered failed
+     */
+    public SimpliSafeRequestContext(SimpliSafeOperation operation, SimpliSafeAccount account, String location, String state, SimpliSafeSession session, int attempt, long sendTime, long timeout) {
+        this.operation = operation;
+        this.account = account;
+        this.location = location;
+        this.state = state;
+        this.session = session;
+        this.attempt = attempt;
+        this.correlationId = newCorrelationId();
+        this.sendTime = sendTime;
+        this.deadline = sendTime + timeout;
+    }
+
+    /**
+     * Returns a new correlation ID. IDs increase in the order they are handed out, so a state that arrives without
+     * a request of its own (e.g. from an event) can be ordered against the requests sent before it.
+     *
+     * @return a long
+     */
+    public static long newCorrelationId() {
+        return nextCorrelationId.incrementAndGet();
+    }
+
+    public SimpliSafeOperation getOperation() {
+        return operation;
+    }
+
+    public SimpliSafeAccount getAccount() {
+        return account;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public SimpliSafeSession getSession() {
+        return session;
+    }
+
+    public int getAttempt() {
+        return attempt;
+    }
+
+    public long getCorrelationId() {
+        return correlationId;
+    }
+
+    public long getSendTime() {
+        return sendTime;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Indicates whether the request has passed its deadline.
+     *
+     * @param now the current time
+     *
+     * @return a boolean
+     */
+    public boolean isExpired(long now) {
+        return (now >= deadline);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(operation.toString()).append('#').append(correlationId);
+        if (location != null) {
+            sb.append('[').append(location).append(']');
+        } else if (account != null) {
+            sb.append('[').append(account).append(']');
+        }
+        return sb.toString();
+    }
+}
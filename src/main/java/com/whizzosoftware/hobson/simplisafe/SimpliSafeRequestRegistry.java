@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import java.util.*;
+
+/**
+ * Keeps track of SimpliSafe requests that are currently outstanding so that duplicate requests can be collapsed.
+ * Requests are keyed by their operation and location (or, for requests that aren't location-specific such as
+ * logins, their account). For set state requests, the most recent target state
+ * requested while a set state is already outstanding is held so that it can be sent once the outstanding request
+ * completes; registering a new set state request supersedes it.
+ *
+ * Only the most recently registered request for an operation/location is considered current; a response to any
+ * other request (e.g. one that passed its deadline and was superseded) is reported as stale.
+ *
+ * @author Dan Noguerol
+ */
+public class SimpliSafeRequestRegistry {
+    private static final String NO_LOCATION = "";
+    private static final String ACCOUNT_PREFIX = "@";
+
+    private final Map<SimpliSafeOperation,Map<String,SimpliSafeRequestContext>> inFlightMap = new EnumMap<>(SimpliSafeOperation.class);
+    private final Map<String,String> pendingStateMap = new HashMap<>();
+
+    public SimpliSafeRequestRegistry() {
+        for (SimpliSafeOperation op : SimpliSafeOperation.values()) {
+            inFlightMap.put(op, new HashMap<String,SimpliSafeRequestContext>());
+        }
+    }
+
+    /**
+     * Attempts to register a request as in-flight.
+     *
+     * @param ctx the request context
+     *
+     * @return true if the request was registered; false if an identical request is already in-flight
+     */
+    public synchronized boolean acquire(SimpliSafeRequestContext ctx) {
+        Map<String,SimpliSafeRequestContext> m = inFlightMap.get(ctx.getOperation());
+        String key = getKey(ctx);
+        SimpliSafeRequestContext c = m.get(key);
+        if (c != null && !c.isExpired(ctx.getSendTime())) {
+            return false;
+        }
+        m.put(key, ctx);
+        if (ctx.getOperation() == SimpliSafeOperation.SET_STATE) {
+            pendingStateMap.remove(key);
+        }
+        return true;
+    }
+
+    /**
+     * Removes a request from the in-flight registry.
+     *
+     * @param ctx the request context
+     *
+     * @return true if the request was the current one for its operation/location; false if it was stale
+     */
+    public synchronized boolean release(SimpliSafeRequestContext ctx) {
+        Map<String,SimpliSafeRequestContext> m = inFlightMap.get(ctx.getOperation());
+        String key = getKey(ctx);
+        SimpliSafeRequestContext c = m.get(key);
+        if (c != null && c.getCorrelationId() == ctx.getCorrelationId()) {
+            m.remove(key);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Indicates whether a request is currently in-flight.
+     *
+     * @param op the operation
+     * @param location the location (or null)
+     *
+     * @return a boolean
+     */
+    public synchronized boolean isInFlight(SimpliSafeOperation op, String location) {
+        return inFlightMap.get(op).containsKey(getKey(location));
+    }
+
+    /**
+     * Indicates whether an account-level request (e.g. a locations request) is outstanding for an account.
+     *
+     * @param op the operation
+     * @param account the account
+     *
+     * @return a boolean
+     */
+    public synchronized boolean isInFlight(SimpliSafeOperation op, SimpliSafeAccount account) {
+        return inFlightMap.get(op).containsKey(ACCOUNT_PREFIX + account.getUsername());
+    }
+
+    /**
+     * Removes and returns all requests that have passed their deadline.
+     *
+     * @param now the current time
+     *
+     * @return a List of expired request contexts (or null if there are none)
+     */
+    public synchronized List<SimpliSafeRequestContext> expire(long now) {
+        List<SimpliSafeRequestContext> results = null;
+        for (Map<String,SimpliSafeRequestContext> m : inFlightMap.values()) {
+            for (Iterator<SimpliSafeRequestContext> it = m.values().iterator(); it.hasNext(); ) {
+                SimpliSafeRequestContext c = it.next();
+                if (c.isExpired(now)) {
+                    if (results == null) {
+                        results = new ArrayList<>();
+                    }
+                    results.add(c);
+                    it.remove();
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Records a target state to send for a location once its outstanding set state request completes. This
+     * replaces any previously pending target state.
+     *
+     * @param location the location ID
+     * @param state the target state
+     */
+    public synchronized void setPendingState(String location, String state) {
+        pendingStateMap.put(location, state);
+    }
+
+    /**
+     * Indicates whether a location has a pending target state.
+     *
+     * @param location the location ID
+     *
+     * @return a boolean
+     */
+    public synchronized boolean hasPendingState(String location) {
+        return pendingStateMap.containsKey(location);
+    }
+
+    /**
+     * Removes and returns the pending target state for a location.
+     *
+     * @param location the location ID
+     *
+     * @return the target state (or null if there is none)
+     */
+    public synchronized String takePendingState(String location) {
+        return pendingStateMap.remove(location);
+    }
+
+    /**
+     * Removes all in-flight requests for an account except its login (so that a login in progress can still
+     * establish a new session) along with its pending target states. Responses to any of the removed requests will
+     * subsequently be treated as stale, so the set states that were outstanding are returned to be sent again.
+     *
+     * @param account the account
+     *
+     * @return a Map of location ID to the latest target state (its pending state if it has one, otherwise the
+     *         state of its removed set state request)
+     */
+    public synchronized Map<String,String> clear(SimpliSafeAccount account) {
+        Map<String,String> states = new HashMap<>();
+        for (Map.Entry<SimpliSafeOperation,Map<String,SimpliSafeRequestContext>> e : inFlightMap.entrySet()) {
+            if (e.getKey() != SimpliSafeOperation.LOGIN) {
+                removeAccount(e.getValue(), account, states);
+            }
+        }
+        takePendingStates(account, states);
+        return states;
+    }
+
+    /**
+     * Removes all in-flight requests for an account including its login along with its pending target states.
+     *
+     * @param account the account
+     *
+     * @return a Map of location ID to the latest target state (see clear())
+     */
+    public synchronized Map<String,String> clearAll(SimpliSafeAccount account) {
+        Map<String,String> states = new HashMap<>();
+        for (Map<String,SimpliSafeRequestContext> m : inFlightMap.values()) {
+            removeAccount(m, account, states);
+        }
+        takePendingStates(account, states);
+        return states;
+    }
+
+    private void removeAccount(Map<String,SimpliSafeRequestContext> m, SimpliSafeAccount account, Map<String,String> states) {
+        for (Iterator<SimpliSafeRequestContext> it = m.values().iterator(); it.hasNext(); ) {
+            SimpliSafeRequestContext c = it.next();
+            if (c.getAccount() == account) {
+                it.remove();
+                if (c.getOperation() == SimpliSafeOperation.SET_STATE) {
+                    states.put(c.getLocation(), c.getState());
+                }
+            }
+        }
+    }
+
+    private void takePendingStates(SimpliSafeAccount account, Map<String,String> states) {
+        // a pending state is newer than the outstanding request it was waiting on
+        for (String location : account.getLocations()) {
+            String state = pendingStateMap.remove(location);
+            if (state != null) {
+                states.put(location, state);
+            }
+        }
+    }
+
+    private String getKey(SimpliSafeRequestContext ctx) {
+        if (ctx.getLocation() != null) {
+            return ctx.getLocation();
+        } else if (ctx.getAccount() != null) {
+            return ACCOUNT_PREFIX + ctx.getAccount().getUsername();
+        } else {
+            return NO_LOCATION;
+        }
+    }
+
+    private String getKey(String location) {
+        return (location != null) ? location : NO_LOCATION;
+    }
+}
@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import java.net.URI;
+
+/**
+ * A pre-built SimpliSafe request (URI and body) that can be sent repeatedly without being rebuilt.
+ *
+ * @author Dan Noguerol
+ */
+public class SimpliSafeRequestTemplate {
+    private final URI uri;
+    private final byte[] body;
+
+    public SimpliSafeRequestTemplate(URI uri, byte[] body) {
+        this.uri = uri;
+        this.body = body;
+    }
+
+    public URI getURI() {
+        return uri;
+    }
+
+    /**
+     * Returns the request body. The returned array is shared and must not be modified.
+     *
+     * @return a byte array
+     */
+    public byte[] getBody() {
+        return body;
+    }
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * A minimal streaming parser for SimpliSafe get/set state responses. It scans the response body for the top-level
+ * "response_code" field and returns its integer value without building a JSON object tree or a body String.
+ *
+ * @author Dan Noguerol
+ */
+public class SimpliSafeResponseParser {
+    private static final byte[] RESPONSE_CODE_KEY = "response_code".getBytes(Charset.forName("UTF-8"));
+    private static final int BUFFER_SIZE = 256;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int pos;
+    private int len;
+
+    private SimpliSafeResponseParser(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Extracts the top-level "response_code" value from a JSON response body.
+     *
+     * @param body the response body
+     *
+     * @return the response code or SimpliSafeBaseStation.STATE_UNKNOWN if it was not found
+     */
+    public static int parseResponseCode(byte[] body) {
+        try {
+            return parseResponseCode(new ByteArrayInputStream(body));
+        } catch (IOException e) {
+            return SimpliSafeBaseStation.STATE_UNKNOWN;
+        }
+    }
+
+    /**
+     * Extracts the top-level "response_code" value from a JSON response body stream.
+     *
+     * @param in the response body stream
+     *
+     * @return the response code or SimpliSafeBaseStation.STATE_UNKNOWN if it was not found
+     *
+     * @throws IOException on failure
+     */
+    public static int parseResponseCode(InputStream in) throws IOException {
+        return new SimpliSafeResponseParser(in).findResponseCode();
+    }
+
+    private int findResponseCode() throws IOException {
+        int depth = 0;
+        int c;
+        while ((c = read()) != -1) {
+            switch (c) {
+                case '{':
+                case '[':
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    depth--;
+                    break;
+                case '"':
+                    // only keys of the top-level object are candidates
+                    if (readStringMatchesKey() && depth == 1) {
+                        c = skipWhitespace();
+                        if (c == ':') {
+                            return readInt();
+                        }
+                    }
+                    break;
+            }
+        }
+        return SimpliSafeBaseStation.STATE_UNKNOWN;
+    }
+
+    /**
+     * Consumes a string literal (the opening quote has already been read) and indicates whether it was equal
+     * to the response code key.
+     */
+    private boolean readStringMatchesKey() throws IOException {
+        boolean match = true;
+        int i = 0;
+        int c;
+        while ((c = read()) != -1) {
+            if (c == '\\') {
+                match = false;
+                read();
+            } else if (c == '"') {
+                return match && i == RESPONSE_CODE_KEY.length;
+            } else if (match && i < RESPONSE_CODE_KEY.length && c == RESPONSE_CODE_KEY[i]) {
+                i++;
+            } else {
+                match = false;
+            }
+        }
+        return false;
+    }
+
+    private int readInt() throws IOException {
+        int c = skipWhitespace();
+        // tolerate numbers that have been sent as strings
+        if (c == '"') {
+            c = read();
+        }
+        boolean negative = (c == '-');
+        if (negative) {
+            c = read();
+        }
+        if (c < '0' || c > '9') {
+            return SimpliSafeBaseStation.STATE_UNKNOWN;
+        }
+        int value = 0;
+        while (c >= '0' && c <= '9') {
+            value = value * 10 + (c - '0');
+            c = read();
+        }
+        return negative ? -value : value;
+    }
+
+    private int skipWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ' ' || c == '\t' || c == '\r' || c == '\n');
+        return c;
+    }
+
+    private int read() throws IOException {
+        if (pos == len) {
+            len = in.read(buffer, 0, buffer.length);
+            pos = 0;
+            if (len <= 0) {
+                len = 0;
+                return -1;
+            }
+        }
+        return buffer[pos++] & 0xFF;
+    }
+}
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import java.util.Random;
+
+/**
+ * Defines how a failed SimpliSafe request should be retried. The delay before each retry grows exponentially
+ * from the base delay up to the maximum delay and a random jitter of up to half the delay is applied.
+ *
+ * @author Dan Noguerol
+ */
+public class SimpliSafeRetryPolicy {
+    private final int maxAttempts;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final Random random = new Random();
+
+    /**
+     * Constructor.
+     *
+     * @param maxAttempts the maximum number of attempts (including the first)
+     * @param baseDelay the delay before the first retry (in milliseconds)
+     * @param maxDelay the maximum delay between retries (in milliseconds)
+     */
+    public SimpliSafeRetryPolicy(int maxAttempts, long baseDelay, long maxDelay) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Indicates whether another attempt should be made.
+     *
+     * @param attempt the number of attempts that have already been made
+     *
+     * @return a boolean
+     */
+    public boolean shouldRetry(int attempt) {
+        return (attempt < maxAttempts);
+    }
+
+    /**
+     * Returns the delay before the next attempt.
+     *
+     * @param attempt the number of attempts that have already been made (1 or greater)
+     *
+     * @return the delay in milliseconds
+     */
+    public long getDelay(int attempt) {
+        long delay = baseDelay << Math.min(Math.max(attempt - 1, 0), 20);
+        delay = Math.min(delay, maxDelay);
+        long half = delay / 2;
+        synchronized (random) {
+            return half + (long)(random.nextDouble() * (delay - half + 1));
+        }
+    }
+}
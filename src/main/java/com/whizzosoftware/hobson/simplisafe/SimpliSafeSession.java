@@ -9,22 +9,62 @@ package com.whizzosoftware.hobson.simplisafe;
 
 import com.whizzosoftware.hobson.api.plugin.http.Cookie;
 
-import java.util.Collection;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Represents a SimpliSafe user session.
+ * Represents a SimpliSafe user session. The session also owns the request templates for its locations since the
+ * request URIs are specific to the session's user ID. Session fields are immutable so that a session can be safely
+ * shared between threads and replaced as a whole.
  *
  * @author Dan Noguerol
  */
 public class SimpliSafeSession {
-    private String session;
-    private String uid;
-    private Collection<Cookie> cookies;
+    private static final String STATE_BODY = "no_persist=0&XDEBUG_SESSION_START=session_name";
+    private static final String[] COOKIE_DATE_FORMATS = {
+        "EEE, dd MMM yyyy HH:mm:ss zzz",
+        "EEE, dd-MMM-yyyy HH:mm:ss zzz",
+        "EEEE, dd-MMM-yy HH:mm:ss zzz"
+    };
 
-    public SimpliSafeSession(String session, String uid, Collection<Cookie> cookies) {
+    private final String session;
+    private final String uid;
+    private final Collection<Cookie> cookies;
+    private final String baseUrl;
+    private final long expiration;
+    private final SimpliSafeRequestTemplate locationsTemplate;
+    private final Map<String,LocationTemplates> templateMap = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param session the session ID
+     * @param uid the user ID
+     * @param cookies the session cookies
+     * @param baseUrl the base URL of the SimpliSafe service
+     * @param expiration the time (in epoch milliseconds) after which the session should no longer be used
+     * @param locations any already known locations to build request templates for (can be null)
+     *
+     * @throws URISyntaxException if the base URL is invalid
+     */
+    public SimpliSafeSession(String session, String uid, Collection<Cookie> cookies, String baseUrl, long expiration, Collection<String> locations) throws URISyntaxException {
         this.session = session;
         this.uid = uid;
-        this.cookies = cookies;
+        this.cookies = (cookies != null) ? Collections.unmodifiableList(new ArrayList<>(cookies)) : Collections.<Cookie>emptyList();
+        this.baseUrl = baseUrl;
+        this.expiration = expiration;
+        this.locationsTemplate = new SimpliSafeRequestTemplate(new URI(baseUrl + "/mobile/" + uid + "/locations"), STATE_BODY.getBytes());
+        if (locations != null) {
+            for (String location : locations) {
+                addLocation(location);
+            }
+        }
     }
 
     public String getSession() {
@@ -38,4 +78,199 @@ public class SimpliSafeSession {
     public Collection<Cookie> getCookies() {
         return cookies;
     }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public long getExpiration() {
+        return expiration;
+    }
+
+    /**
+     * Indicates whether the session has expired.
+     *
+     * @param now the current time
+     *
+     * @return a boolean
+     */
+    public boolean isExpired(long now) {
+        return (now >= expiration);
+    }
+
+    public SimpliSafeRequestTemplate getLocationsTemplate() {
+        return locationsTemplate;
+    }
+
+    /**
+     * Returns the URI of an event long-poll request. The SimpliSafe service itself doesn't serve this endpoint so
+     * it's only usable with a compatible event server.
+     *
+     * @param cursor the position in the event stream to continue from (or null to start from now)
+     * @param timeout the maximum time (in seconds) the server should hold the request
+     *
+     * @return a URI
+     *
+     * @throws URISyntaxException if the cursor results in an invalid URI
+     */
+    public URI getEventsURI(String cursor, long timeout) throws URISyntaxException {
+        StringBuilder sb = new StringBuilder(baseUrl).append("/mobile/").append(uid).append("/events?timeout=").append(timeout);
+        if (cursor != null) {
+            try {
+                sb.append("&cursor=").append(URLEncoder.encode(cursor, "UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new URISyntaxException(cursor, e.getMessage());
+            }
+        }
+        return new URI(sb.toString());
+    }
+
+    /**
+     * Builds the request templates for a location if they don't already exist.
+     *
+     * @param location the location ID
+     *
+     * @throws URISyntaxException if the location results in an invalid URI
+     */
+    public void addLocation(String location) throws URISyntaxException {
+        if (!templateMap.containsKey(location)) {
+            templateMap.put(location, new LocationTemplates(baseUrl + "/mobile/" + uid + "/sid/" + location));
+        }
+    }
+
+    /**
+     * Discards the request templates for a location that no longer exists.
+     *
+     * @param location the location ID
+     */
+    public void removeLocation(String location) {
+        templateMap.remove(location);
+    }
+
+    /**
+     * Returns the get state request template for a location.
+     *
+     * @param location the location ID
+     *
+     * @return a SimpliSafeRequestTemplate
+     *
+     * @throws URISyntaxException if the location results in an invalid URI
+     */
+    public SimpliSafeRequestTemplate getGetStateTemplate(String location) throws URISyntaxException {
+        return getLocationTemplates(location).getState;
+    }
+
+    /**
+     * Returns the set state request template for a location.
+     *
+     * @param location the location ID
+     * @param state the target state (off, home, away)
+     *
+     * @return a SimpliSafeRequestTemplate
+     *
+     * @throws URISyntaxException if the location results in an invalid URI
+     */
+    public SimpliSafeRequestTemplate getSetStateTemplate(String location, String state) throws URISyntaxException {
+        LocationTemplates lt = getLocationTemplates(location);
+        SimpliSafeRequestTemplate t = lt.setStateMap.get(state);
+        if (t == null) {
+            t = new SimpliSafeRequestTemplate(lt.setStateURI, createSetStateBody(state));
+            lt.setStateMap.put(state, t);
+        }
+        return t;
+    }
+
+    private LocationTemplates getLocationTemplates(String location) throws URISyntaxException {
+        LocationTemplates lt = templateMap.get(location);
+        if (lt == null) {
+            addLocation(location);
+            lt = templateMap.get(location);
+        }
+        return lt;
+    }
+
+    private static byte[] createSetStateBody(String state) {
+        return ("state=" + state + "&mobile=1&" + STATE_BODY).getBytes();
+    }
+
+    private static class LocationTemplates {
+        final SimpliSafeRequestTemplate getState;
+        final URI setStateURI;
+        final Map<String,SimpliSafeRequestTemplate> setStateMap = new ConcurrentHashMap<>();
+
+        LocationTemplates(String path) throws URISyntaxException {
+            getState = new SimpliSafeRequestTemplate(new URI(path + "/get-state"), STATE_BODY.getBytes());
+            setStateURI = new URI(path + "/set-state");
+            for (String state : new String[] {"off", "home", "away"}) {
+                setStateMap.put(state, new SimpliSafeRequestTemplate(setStateURI, createSetStateBody(state)));
+            }
+        }
+    }
+
+    /**
+     * Returns the earliest expiration of the cookies in a set of Set-Cookie response headers. A cookie's Max-Age
+     * attribute takes precedence over its Expires attribute, which can be an HTTP date or a number of epoch seconds.
+     *
+     * @param headers the response headers
+     * @param now the current time
+     *
+     * @return the expiration in epoch milliseconds (or 0 if no cookie has an expiration)
+     */
+    public static long parseCookieExpiration(Map<String,List<String>> headers, long now) {
+        long result = 0;
+        if (headers != null) {
+            for (Map.Entry<String,List<String>> e : headers.entrySet()) {
+                // header names aren't guaranteed to keep their case
+                if ("Set-Cookie".equalsIgnoreCase(e.getKey()) && e.getValue() != null) {
+                    for (String value : e.getValue()) {
+                        long l = parseCookieExpiration(value, now);
+                        if (l > 0 && (result == 0 || l < result)) {
+                            result = l;
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static long parseCookieExpiration(String cookie, long now) {
+        long expires = 0;
+        for (String attr : cookie.split(";")) {
+            attr = attr.trim();
+            int eq = attr.indexOf('=');
+            if (eq > 0) {
+                String name = attr.substring(0, eq).trim();
+                String value = attr.substring(eq + 1).trim();
+                if ("Max-Age".equalsIgnoreCase(name)) {
+                    try {
+                        return now + Long.parseLong(value) * 1000;
+                    } catch (NumberFormatException ignored) {
+                        // fall back to Expires
+                    }
+                } else if ("Expires".equalsIgnoreCase(name)) {
+                    expires = parseCookieDate(value);
+                }
+            }
+        }
+        return expires;
+    }
+
+    private static long parseCookieDate(String value) {
+        try {
+            return Long.parseLong(value) * 1000;
+        } catch (NumberFormatException ignored) {
+            // not epoch seconds
+        }
+        for (String format : COOKIE_DATE_FORMATS) {
+            try {
+                SimpleDateFormat sdf = new SimpleDateFormat(format, Locale.US);
+                sdf.setTimeZone(TimeZone.getTimeZone("GMT"));
+                return sdf.parse(value).getTime();
+            } catch (ParseException ignored) {
+                // try the next format
+            }
+        }
+        return 0;
+    }
 }
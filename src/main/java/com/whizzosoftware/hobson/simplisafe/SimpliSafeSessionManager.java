@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Manages the lifecycle of a SimpliSafe session. It ensures only one login is in flight at a time, indicates when
+ * a session should be renewed ahead of its expiration and holds requests that could not be sent (or were rejected)
+ * because no valid session was available so they can be replayed once a new session is established.
+ *
+ * @author Dan Noguerol
+ */
+public class SimpliSafeSessionManager {
+    private static final Logger logger = LoggerFactory.getLogger(SimpliSafeSessionManager.class);
+
+    private final long renewalMargin;
+    private final long loginTimeout;
+    private final int maxReplayRequests;
+    private final AtomicReference<SimpliSafeSession> session = new AtomicReference<>();
+    private final AtomicLong loginStartTime = new AtomicLong();
+    private final Deque<ReplayRequest> replayQueue = new ArrayDeque<>();
+
+    /**
+     * Constructor.
+     *
+     * @param renewalMargin how long (in milliseconds) before expiration a session should be renewed
+     * @param loginTimeout how long (in milliseconds) a login can be in flight before another is allowed
+     * @param maxReplayRequests the maximum number of get state requests to hold for replay (set states are always
+     *                          held)
+     */
+    public SimpliSafeSessionManager(long renewalMargin, long loginTimeout, int maxReplayRequests) {
+        this.renewalMargin = renewalMargin;
+        this.loginTimeout = loginTimeout;
+        this.maxReplayRequests = maxReplayRequests;
+    }
+
+    public SimpliSafeSession getSession() {
+        return session.get();
+    }
+
+    /**
+     * Sets a new active session. This also ends any login in progress.
+     *
+     * @param s the new session
+     */
+    public void setSession(SimpliSafeSession s) {
+        session.set(s);
+        endLogin();
+    }
+
+    /**
+     * Clears the active session if it is the one specified. This prevents a failure of a request sent with an older
+     * session from discarding a session that has since been renewed.
+     *
+     * @param s the session to clear
+     *
+     * @return true if the session was cleared
+     */
+    public boolean clearSession(SimpliSafeSession s) {
+        return session.compareAndSet(s, null);
+    }
+
+    /**
+     * Clears the active session.
+     */
+    public void clearSession() {
+        session.set(null);
+    }
+
+    /**
+     * Indicates whether the active session is close enough to expiration that it should be renewed.
+     *
+     * @param now the current time
+     *
+     * @return a boolean
+     */
+    public boolean needsRenewal(long now) {
+        SimpliSafeSession s = session.get();
+        return (s != null && now >= s.getExpiration() - renewalMargin);
+    }
+
+    /**
+     * Attempts to start a login.
+     *
+     * @param now the current time
+     *
+     * @return true if the caller should send a login request; false if one is already in flight
+     */
+    public boolean beginLogin(long now) {
+        long start = loginStartTime.get();
+        return ((start == 0 || now - start >= loginTimeout) && loginStartTime.compareAndSet(start, now));
+    }
+
+    /**
+     * Called when a login request has completed (successfully or not).
+     */
+    public void endLogin() {
+        loginStartTime.set(0);
+    }
+
+    /**
+     * Holds a request for replay once a new session is available. Only the latest request for each location and
+     * operation is retained. If the queue is full, the oldest get state is dropped to make room; set states are
+     * never dropped (there is at most one per location), so a get state is dropped instead if there is no room.
+     *
+     * @param request the request to replay
+     */
+    public synchronized void enqueue(ReplayRequest request) {
+        for (Iterator<ReplayRequest> it = replayQueue.iterator(); it.hasNext(); ) {
+            if (it.next().isSameOperation(request)) {
+                it.remove();
+            }
+        }
+        if (replayQueue.size() >= maxReplayRequests && !dropGetState() && !request.isSetState()) {
+            logger.error("Replay queue is full; dropping request: {}", request);
+            return;
+        }
+        replayQueue.addLast(request);
+    }
+
+    private boolean dropGetState() {
+        for (Iterator<ReplayRequest> it = replayQueue.iterator(); it.hasNext(); ) {
+            ReplayRequest r = it.next();
+            if (!r.isSetState()) {
+                logger.error("Replay queue is full; dropping request: {}", r);
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes and returns all requests waiting for replay.
+     *
+     * @return a List of ReplayRequest objects
+     */
+    public synchronized List<ReplayRequest> drainReplayQueue() {
+        List<ReplayRequest> results = new ArrayList<>(replayQueue);
+        replayQueue.clear();
+        return results;
+    }
+
+    /**
+     * A get state (state is null) or set state request waiting to be replayed.
+     */
+    public static class ReplayRequest {
+        private final String location;
+        private final String state;
+
+        public ReplayRequest(String location, String state) {
+            this.location = location;
+            this.state = state;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        public String getState() {
+            return state;
+        }
+
+        public boolean isSetState() {
+            return (state != null);
+        }
+
+        boolean isSameOperation(ReplayRequest r) {
+            return (location.equals(r.location) && isSetState() == r.isSetState());
+        }
+
+        @Override
+        public String toString() {
+            return isSetState() ? "set state " + location + "=" + state : "get state " + location;
+        }
+    }
+}
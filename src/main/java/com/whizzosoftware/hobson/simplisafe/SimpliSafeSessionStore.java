@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import com.whizzosoftware.hobson.api.plugin.http.Cookie;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Persists a SimpliSafe session and its discovered locations to a file so that the plugin can resume polling
+ * after a restart without performing a new login and location discovery. Passwords are never persisted.
+ *
+ * @author Dan Noguerol
+ */
+public class SimpliSafeSessionStore {
+    private static final Logger logger = LoggerFactory.getLogger(SimpliSafeSessionStore.class);
+
+    private final File file;
+
+    /**
+     * Constructor.
+     *
+     * @param file the file to persist session information to
+     */
+    public SimpliSafeSessionStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Saves a session and its locations.
+     *
+     * @param username the username the session belongs to
+     * @param session the session
+     * @param locations the known location IDs
+     */
+    public synchronized void save(String username, SimpliSafeSession session, Collection<String> locations) {
+        if (file != null) {
+            JSONObject json = new JSONObject();
+            json.put("username", username);
+            json.put("session", session.getSession());
+            json.put("uid", session.getUid());
+            json.put("baseUrl", session.getBaseUrl());
+            json.put("expiration", session.getExpiration());
+            JSONArray cookies = new JSONArray();
+            for (Cookie c : session.getCookies()) {
+                JSONObject jc = new JSONObject();
+                jc.put("name", c.getName());
+                jc.put("value", c.getValue());
+                cookies.put(jc);
+            }
+            json.put("cookies", cookies);
+            JSONArray locs = new JSONArray();
+            for (String l : locations) {
+                locs.put(l);
+            }
+            json.put("locations", locs);
+
+            try (Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+                w.write(json.toString());
+            } catch (IOException e) {
+                logger.error("Error saving session to " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Loads a previously saved session.
+     *
+     * @param username the username the session must belong to
+     * @param baseUrl the base URL the session must have been created for
+     * @param now the current time
+     *
+     * @return the saved session or null if there is none, or it was for a different user/URL or has expired
+     */
+    public synchronized Entry load(String username, String baseUrl, long now) {
+        if (file != null && file.exists()) {
+            try (Reader r = new InputStreamReader(new FileInputStream(file), "UTF-8")) {
+                JSONObject json = new JSONObject(new JSONTokener(r));
+                if (!username.equals(json.optString("username", null)) || !baseUrl.equals(json.optString("baseUrl", null))) {
+                    logger.debug("Saved session is for a different account; ignoring");
+                    return null;
+                }
+                long expiration = json.optLong("expiration", 0);
+                if (expiration <= now) {
+                    logger.debug("Saved session has expired; ignoring");
+                    return null;
+                }
+                List<Cookie> cookies = new ArrayList<>();
+                JSONArray jcookies = json.getJSONArray("cookies");
+                for (int i = 0; i < jcookies.length(); i++) {
+                    JSONObject jc = jcookies.getJSONObject(i);
+                    cookies.add(new Cookie(jc.getString("name"), jc.getString("value")));
+                }
+                List<String> locations = new ArrayList<>();
+                JSONArray jlocs = json.getJSONArray("locations");
+                for (int i = 0; i < jlocs.length(); i++) {
+                    locations.add(jlocs.getString(i));
+                }
+                return new Entry(new SimpliSafeSession(json.getString("session"), json.getString("uid"), cookies, baseUrl, expiration, locations), locations);
+            } catch (IOException | JSONException | URISyntaxException e) {
+                logger.error("Error loading saved session from " + file, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes any saved session.
+     */
+    public synchronized void clear() {
+        if (file != null && file.exists() && !file.delete()) {
+            logger.error("Unable to delete saved session: {}", file);
+        }
+    }
+
+    /**
+     * A saved session and its locations.
+     */
+    public static class Entry {
+        private final SimpliSafeSession session;
+        private final List<String> locations;
+
+        public Entry(SimpliSafeSession session, List<String> locations) {
+            this.session = session;
+            this.locations = locations;
+        }
+
+        public SimpliSafeSession getSession() {
+            return session;
+        }
+
+        public List<String> getLocations() {
+            return locations;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A short-lived cache of the state most recently received for each location. While an entry is younger than the
+ * TTL, a get state request for its location can be answered locally instead of being sent to SimpliSafe.
+ *
+ * @author Dan Noguerol
+ */
+public class SimpliSafeStateCache {
+    private final ConcurrentMap<String,Entry> entryMap = new ConcurrentHashMap<>();
+    private volatile long ttl;
+
+    /**
+     * Constructor.
+     *
+     * @param ttl how long (in milliseconds) an entry is fresh; 0 disables the cache
+     */
+    public SimpliSafeStateCache(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+        if (ttl <= 0) {
+            entryMap.clear();
+        }
+    }
+
+    /**
+     * Records a state received for a location.
+     *
+     * @param location the location ID
+     * @param code the state code
+     * @param now the current time
+     */
+    public void put(String location, int code, long now) {
+        if (ttl > 0) {
+            entryMap.put(location, new Entry(code, now));
+        }
+    }
+
+    /**
+     * Returns the cached state of a location if it is still fresh.
+     *
+     * @param location the location ID
+     * @param now the current time
+     *
+     * @return the state code (or SimpliSafeBaseStation.STATE_UNKNOWN if there is no fresh entry)
+     */
+    public int get(String location, long now) {
+        Entry e = entryMap.get(location);
+        if (e != null) {
+            if (now - e.time < ttl) {
+                return e.code;
+            }
+            entryMap.remove(location, e);
+        }
+        return SimpliSafeBaseStation.STATE_UNKNOWN;
+    }
+
+    /**
+     * Discards the entry for a location.
+     *
+     * @param location the location ID
+     */
+    public void invalidate(String location) {
+        entryMap.remove(location);
+    }
+
+    /**
+     * Discards the entries for a group of locations (e.g. all those belonging to an account).
+     *
+     * @param locations the location IDs
+     */
+    public void invalidateAll(Collection<String> locations) {
+        for (String location : locations) {
+            entryMap.remove(location);
+        }
+    }
+
+    private static class Entry {
+        final int code;
+        final long time;
+
+        Entry(int code, long time) {
+            this.code = code;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+/**
+ * A fixed-size history of a base station's state transitions. Transitions are kept in a ring buffer of primitive
+ * arrays so the memory used per base station is constant; once the buffer is full, the oldest transition is
+ * overwritten.
+ *
+ * @author Dan Noguerol
+ */
+public class SimpliSafeStateHistory {
+    private final long[] times;
+    private final byte[] codes;
+    private int head; // index of the next slot to write
+    private int size;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the maximum number of transitions to keep
+     */
+    public SimpliSafeStateHistory(int capacity) {
+        times = new long[capacity];
+        codes = new byte[capacity];
+    }
+
+    /**
+     * Returns the number of transitions recorded (up to the capacity).
+     *
+     * @return an int
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Records a transition.
+     *
+     * @param time the time of the transition
+     * @param code the new state code
+     */
+    public synchronized void add(long time, int code) {
+        times[head] = time;
+        codes[head] = (byte)code;
+        head = (head + 1) % times.length;
+        if (size < times.length) {
+            size++;
+        }
+    }
+
+    /**
+     * Copies the most recent transitions into the given arrays, newest first.
+     *
+     * @param timeResults the array to copy transition times into
+     * @param codeResults the array to copy state codes into
+     *
+     * @return the number of transitions copied
+     */
+    public synchronized int getTransitions(long[] timeResults, int[] codeResults) {
+        int count = Math.min(size, Math.min(timeResults.length, codeResults.length));
+        for (int i = 0; i < count; i++) {
+            int ix = index(i);
+            timeResults[i] = times[ix];
+            codeResults[i] = codes[ix];
+        }
+        return count;
+    }
+
+    /**
+     * Returns how long the base station has been in a state within a time window. Only the period covered by the
+     * recorded transitions is counted.
+     *
+     * @param code the state code
+     * @param from the start of the window
+     * @param now the end of the window (normally the current time)
+     *
+     * @return the time in milliseconds
+     */
+    public synchronized long getTimeInState(int code, long from, long now) {
+        long total = 0;
+        long end = now;
+        // walk backwards from the newest transition; each one lasts until the one after it
+        for (int i = 0; i < size && end > from; i++) {
+            int ix = index(i);
+            long start = Math.max(times[ix], from);
+            if (codes[ix] == code && end > start) {
+                total += end - start;
+            }
+            end = times[ix];
+        }
+        return total;
+    }
+
+    /**
+     * Converts a position relative to the newest transition to a buffer index.
+     */
+    private int index(int i) {
+        return (head - 1 - i + times.length) % times.length;
+    }
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import java.util.*;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Keeps track of the futures waiting on the outcome of get/set state requests for each location. Since requests
+ * for a location are coalesced, any number of futures can be waiting on the same request. Futures are completed
+ * outside of the registry's lock so that listeners can safely issue new requests.
+ *
+ * @author Dan Noguerol
+ */
+public class SimpliSafeWaiterRegistry {
+    private final Map<SimpliSafeOperation,Map<String,List<Waiter>>> waiterMap = new EnumMap<>(SimpliSafeOperation.class);
+    private volatile int count;
+
+    /**
+     * Adds a future waiting on a location.
+     *
+     * @param op the operation (GET_STATE or SET_STATE)
+     * @param location the location ID
+     * @param future the future
+     * @param deadline the time after which the future fails with a TimeoutException
+     */
+    public synchronized void add(SimpliSafeOperation op, String location, SimpliSafeFuture<Integer> future, long deadline) {
+        Map<String,List<Waiter>> m = waiterMap.get(op);
+        if (m == null) {
+            m = new HashMap<>();
+            waiterMap.put(op, m);
+        }
+        List<Waiter> l = m.get(location);
+        if (l == null) {
+            l = new ArrayList<>(1);
+            m.put(location, l);
+        }
+        l.add(new Waiter(future, deadline));
+        count++;
+    }
+
+    /**
+     * Completes all futures waiting on a location.
+     *
+     * @param op the operation
+     * @param location the location ID
+     * @param code the resulting state code
+     */
+    public void complete(SimpliSafeOperation op, String location, int code) {
+        // this is called for every state received so avoid locking when nothing is waiting
+        if (count > 0) {
+            List<Waiter> l = remove(op, location);
+            if (l != null) {
+                for (Waiter w : l) {
+                    w.future.complete(code);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fails all futures waiting on a location.
+     *
+     * @param op the operation
+     * @param location the location ID
+     * @param cause the cause of the failure
+     */
+    public void fail(SimpliSafeOperation op, String location, Throwable cause) {
+        if (count > 0) {
+            List<Waiter> l = remove(op, location);
+            if (l != null) {
+                for (Waiter w : l) {
+                    w.future.fail(cause);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fails all futures that have passed their deadline.
+     *
+     * @param now the current time
+     */
+    public void expire(long now) {
+        if (count > 0) {
+            List<Waiter> expired = null;
+            synchronized (this) {
+                for (Map<String,List<Waiter>> m : waiterMap.values()) {
+                    for (Iterator<List<Waiter>> it = m.values().iterator(); it.hasNext(); ) {
+                        List<Waiter> l = it.next();
+                        for (Iterator<Waiter> it2 = l.iterator(); it2.hasNext(); ) {
+                            Waiter w = it2.next();
+                            if (now >= w.deadline || w.future.isDone()) {
+                                if (expired == null) {
+                                    expired = new ArrayList<>();
+                                }
+                                expired.add(w);
+                                it2.remove();
+                                count--;
+                            }
+                        }
+                        if (l.isEmpty()) {
+                            it.remove();
+                        }
+                    }
+                }
+            }
+            if (expired != null) {
+                for (Waiter w : expired) {
+                    w.future.fail(new TimeoutException("No response received from SimpliSafe"));
+                }
+            }
+        }
+    }
+
+    private synchronized List<Waiter> remove(SimpliSafeOperation op, String location) {
+        Map<String,List<Waiter>> m = waiterMap.get(op);
+        List<Waiter> l = (m != null) ? m.remove(location) : null;
+        if (l != null) {
+            count -= l.size();
+        }
+        return l;
+    }
+
+    private static class Waiter {
+        final SimpliSafeFuture<Integer> future;
+        final long deadline;
+
+        Waiter(SimpliSafeFuture<Integer> future, long deadline) {
+            this.future = future;
+            this.deadline = deadline;
+        }
+    }
+}
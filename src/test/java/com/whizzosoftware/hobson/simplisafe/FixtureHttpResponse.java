@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import com.whizzosoftware.hobson.api.plugin.http.Cookie;
+import com.whizzosoftware.hobson.api.plugin.http.HttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory HTTP response with a pre-built body.
+ *
+ * @author Dan Noguerol
+ */
+public class FixtureHttpResponse implements HttpResponse {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int statusCode;
+    private final byte[] body;
+    private final Collection<Cookie> cookies;
+    private final Map<String,List<String>> headers;
+
+    public FixtureHttpResponse(int statusCode, byte[] body) {
+        this(statusCode, body, Collections.<Cookie>emptyList());
+    }
+
+    public FixtureHttpResponse(int statusCode, byte[] body, Collection<Cookie> cookies) {
+        this(statusCode, body, cookies, Collections.<String,List<String>>emptyMap());
+    }
+
+    public FixtureHttpResponse(int statusCode, byte[] body, Collection<Cookie> cookies, Map<String,List<String>> headers) {
+        this.statusCode = statusCode;
+        this.body = body;
+        this.cookies = cookies;
+        this.headers = headers;
+    }
+
+    @Override
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    @Override
+    public String getStatusText() {
+        return null;
+    }
+
+    @Override
+    public Map<String,List<String>> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public Collection<Cookie> getCookies() {
+        return cookies;
+    }
+
+    @Override
+    public String getBody() {
+        return new String(body, UTF8);
+    }
+
+    @Override
+    public InputStream getBodyAsStream() {
+        return new ByteArrayInputStream(body);
+    }
+}
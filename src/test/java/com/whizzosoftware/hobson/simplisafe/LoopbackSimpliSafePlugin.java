@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import com.whizzosoftware.hobson.api.device.MockDeviceManager;
+import com.whizzosoftware.hobson.api.plugin.http.Cookie;
+import com.whizzosoftware.hobson.api.plugin.http.HttpRequest;
+import com.whizzosoftware.hobson.api.plugin.http.HttpResponse;
+import com.whizzosoftware.hobson.api.property.PropertyContainer;
+import com.whizzosoftware.hobson.api.variable.MockVariableManager;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A SimpliSafe plugin that never touches the network. Outgoing requests are queued and answered from the
+ * wiremock fixture bodies when answerNext() or drain() is called, so that the full response path (dispatch,
+ * parsing, state propagation and variable notification) can be exercised in-process. Requests can be answered
+ * from any thread.
+ *
+ * @author Dan Noguerol
+ */
+public class LoopbackSimpliSafePlugin extends SimpliSafePlugin {
+    private static final double UNLIMITED_RATE = 1e9;
+
+    private final Queue<SimpliSafeRequestContext> requestQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final HttpResponse loginResponse;
+    private final HttpResponse locationsResponse;
+    private final HttpResponse homeResponse;
+    private final HttpResponse awayResponse;
+    private final HttpResponse offResponse;
+    private volatile boolean alternateStates;
+
+    /**
+     * Constructor.
+     *
+     * @param fixtures the fixtures to answer requests with
+     * @param locationCount the number of locations the account has
+     *
+     * @throws IOException if the fixtures could not be read
+     */
+    public LoopbackSimpliSafePlugin(SimpliSafeFixtures fixtures, int locationCount) throws IOException {
+        super("com.whizzosoftware.hobson.hub.hobson-hub-simplisafe");
+        setDeviceManager(new MockDeviceManager());
+        setVariableManager(new MockVariableManager());
+        loginResponse = new FixtureHttpResponse(200, fixtures.getLoginBody(), fixtures.getLoginCookies());
+        locationsResponse = new FixtureHttpResponse(200, fixtures.getLocationsBody(locationCount));
+        homeResponse = new FixtureHttpResponse(200, fixtures.getStateBody(SimpliSafeBaseStation.STATE_HOME));
+        awayResponse = new FixtureHttpResponse(200, fixtures.getStateBody(SimpliSafeBaseStation.STATE_AWAY));
+        offResponse = new FixtureHttpResponse(200, fixtures.getStateBody(SimpliSafeBaseStation.STATE_OFF));
+    }
+
+    /**
+     * Sets whether successive get state responses for a location alternate between home and away (so that every
+     * response is a state change) or always report home.
+     *
+     * @param alternateStates the alternate flag
+     */
+    public void setAlternateStates(boolean alternateStates) {
+        this.alternateStates = alternateStates;
+    }
+
+    /**
+     * Configures the plugin with test credentials, effectively unlimited request rates and the state cache
+     * disabled (so that every request goes through the response path), logs in and discovers all locations.
+     *
+     * @param pollInterval the poll floor and ceiling (in seconds)
+     */
+    public void start(int pollInterval) {
+        start(pollInterval, 0);
+    }
+
+    /**
+     * Configures the plugin with test credentials and effectively unlimited request rates, logs in and discovers
+     * all locations.
+     *
+     * @param pollInterval the poll floor and ceiling (in seconds)
+     * @param stateCacheTtl the state cache lifetime (in seconds; 0 disables the cache)
+     */
+    public void start(int pollInterval, int stateCacheTtl) {
+        processConfiguration(createConfiguration(pollInterval, stateCacheTtl));
+        drain();
+    }
+
+    /**
+     * Answers the next queued request.
+     *
+     * @return true if a request was answered; false if none were queued
+     */
+    public boolean answerNext() {
+        SimpliSafeRequestContext ctx = requestQueue.poll();
+        if (ctx != null) {
+            answer(ctx);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes the next queued request without answering it, so that requests can be answered out of order with
+     * answer().
+     *
+     * @return the request context (or null if none were queued)
+     */
+    public SimpliSafeRequestContext nextRequest() {
+        return requestQueue.poll();
+    }
+
+    /**
+     * Answers all queued requests (including any sent while processing responses).
+     *
+     * @return the number of requests answered
+     */
+    public int drain() {
+        int count = 0;
+        while (answerNext()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the total number of requests sent.
+     *
+     * @return an int
+     */
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    @Override
+    protected void sendHttpRequest(URI uri, HttpRequest.Method method, Map<String,String> headers, Collection<Cookie> cookies, byte[] body, Object context) {
+        requestCount.incrementAndGet();
+        enqueue((SimpliSafeRequestContext)context);
+    }
+
+    /**
+     * Queues a request to be answered.
+     *
+     * @param ctx the request context
+     */
+    protected void enqueue(SimpliSafeRequestContext ctx) {
+        requestQueue.add(ctx);
+    }
+
+    /**
+     * Delivers the response to a request. Subclasses can override this to deliver something else (e.g. an error
+     * status or the same response twice).
+     *
+     * @param ctx the request context
+     */
+    protected void answer(SimpliSafeRequestContext ctx) {
+        onHttpResponse(getResponse(ctx), ctx);
+    }
+
+    /**
+     * Returns the fixture response for a request.
+     *
+     * @param ctx the request context
+     *
+     * @return an HttpResponse
+     */
+    protected HttpResponse getResponse(SimpliSafeRequestContext ctx) {
+        switch (ctx.getOperation()) {
+            case LOGIN:
+                return loginResponse;
+            case LOCATIONS:
+                return locationsResponse;
+            case SET_STATE:
+                if ("away".equals(ctx.getState())) {
+                    return awayResponse;
+                } else if ("off".equals(ctx.getState())) {
+                    return offResponse;
+                } else {
+                    return homeResponse;
+                }
+            default:
+                // when alternating, each location flips away from whatever state it last reported
+                return (alternateStates && getCachedState(ctx.getLocation()) == SimpliSafeBaseStation.STATE_HOME) ? awayResponse : homeResponse;
+        }
+    }
+
+    /**
+     * Creates a configuration with test credentials and effectively unlimited request rates.
+     *
+     * @param pollInterval the poll floor and ceiling (in seconds)
+     * @param stateCacheTtl the state cache lifetime (in seconds; 0 disables the cache)
+     *
+     * @return a PropertyContainer
+     */
+    static PropertyContainer createConfiguration(int pollInterval, int stateCacheTtl) {
+        Map<String,Object> config = new HashMap<>();
+        config.put("username", "hello@example.com");
+        config.put("password", "password");
+        config.put("pollFloor", pollInterval);
+        config.put("pollCeiling", pollInterval);
+        config.put("loginRateLimit", UNLIMITED_RATE);
+        config.put("setStateRateLimit", UNLIMITED_RATE);
+        config.put("pollRateLimit", UNLIMITED_RATE);
+        config.put("stateCacheTtl", stateCacheTtl);
+        return createConfiguration(config);
+    }
+
+    static PropertyContainer createConfiguration(final Map<String,Object> values) {
+        return new PropertyContainer() {
+            @Override
+            public Object getPropertyValue(String name) {
+                return values.get(name);
+            }
+
+            @Override
+            public String getStringPropertyValue(String name) {
+                Object o = values.get(name);
+                return (o != null) ? o.toString() : null;
+            }
+
+            @Override
+            public boolean hasPropertyValue(String name) {
+                return values.containsKey(name);
+            }
+        };
+    }
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SimpliSafeCircuitBreakerTest {
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        SimpliSafeCircuitBreaker cb = new SimpliSafeCircuitBreaker(3, 1000);
+        assertFalse(cb.onFailure(100));
+        assertFalse(cb.onFailure(200));
+
+        // a success resets the count
+        assertFalse(cb.onSuccess());
+        assertFalse(cb.onFailure(300));
+        assertFalse(cb.onFailure(400));
+        assertTrue(cb.allowRequest(400));
+        assertTrue(cb.onFailure(500));
+
+        // requests are rejected until the open period has elapsed
+        assertFalse(cb.allowRequest(500));
+        assertFalse(cb.allowRequest(1499));
+        assertFalse(cb.isHalfOpen());
+    }
+
+    @Test
+    public void testSuccessfulProbeCloses() {
+        SimpliSafeCircuitBreaker cb = createOpen(1000);
+
+        // a single probe is allowed once the circuit is half-open
+        assertTrue(cb.allowRequest(2000));
+        assertTrue(cb.isHalfOpen());
+        assertFalse(cb.allowRequest(2000));
+        assertFalse(cb.allowRequest(2500));
+
+        assertTrue(cb.onSuccess());
+        assertFalse(cb.isHalfOpen());
+        assertTrue(cb.allowRequest(2500));
+        assertTrue(cb.allowRequest(2500));
+
+        // the next failure opens it again as if it had never been open
+        assertTrue(cb.onFailure(2600));
+        assertFalse(cb.allowRequest(2600));
+    }
+
+    @Test
+    public void testFailedProbeReopens() {
+        SimpliSafeCircuitBreaker cb = createOpen(1000);
+        assertTrue(cb.allowRequest(2000));
+
+        // a failed probe doesn't count as newly opening the circuit but starts another open period
+        assertFalse(cb.onFailure(2100));
+        assertFalse(cb.isHalfOpen());
+        assertFalse(cb.allowRequest(2100));
+        assertFalse(cb.allowRequest(3099));
+        assertTrue(cb.allowRequest(3100));
+        assertTrue(cb.isHalfOpen());
+        assertTrue(cb.onSuccess());
+    }
+
+    @Test
+    public void testLostProbeIsReplaced() {
+        SimpliSafeCircuitBreaker cb = createOpen(1000);
+        assertTrue(cb.allowRequest(2000));
+
+        // the probe never completes so another is allowed after the open duration
+        assertFalse(cb.allowRequest(2999));
+        assertTrue(cb.allowRequest(3000));
+        assertFalse(cb.allowRequest(3000));
+        assertTrue(cb.isHalfOpen());
+    }
+
+    /**
+     * Creates a circuit breaker that opens on a single failure and was opened at time 1000.
+     */
+    private SimpliSafeCircuitBreaker createOpen(long openDuration) {
+        SimpliSafeCircuitBreaker cb = new SimpliSafeCircuitBreaker(1, openDuration);
+        assertTrue(cb.onFailure(1000));
+        assertFalse(cb.allowRequest(1000 + openDuration - 1));
+        return cb;
+    }
+}
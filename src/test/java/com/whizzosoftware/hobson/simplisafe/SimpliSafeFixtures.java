@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import com.whizzosoftware.hobson.api.plugin.http.Cookie;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Response bodies taken from the wiremock/mappings fixtures. The locations response can be expanded to any number
+ * of locations by repeating the fixture's first location entry.
+ *
+ * The fixture directory defaults to wiremock/mappings (relative to the working directory) and can be overridden
+ * with the "simplisafe.fixtures" system property.
+ *
+ * @author Dan Noguerol
+ */
+public class SimpliSafeFixtures {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int FIRST_LOCATION_ID = 100000;
+
+    private final File dir;
+
+    public SimpliSafeFixtures() {
+        this(new File(System.getProperty("simplisafe.fixtures", "wiremock/mappings")));
+    }
+
+    public SimpliSafeFixtures(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Returns the login response body.
+     *
+     * @return a byte array
+     *
+     * @throws IOException on failure
+     */
+    public byte[] getLoginBody() throws IOException {
+        return getBody("login.json").toString().getBytes(UTF8);
+    }
+
+    /**
+     * Returns the cookies set by the login response.
+     *
+     * @return a List of Cookie objects
+     *
+     * @throws IOException on failure
+     */
+    public List<Cookie> getLoginCookies() throws IOException {
+        JSONObject headers = getResponse("login.json").optJSONObject("headers");
+        JSONArray a = (headers != null) ? headers.optJSONArray("Set-Cookie") : null;
+        if (a == null) {
+            return Collections.emptyList();
+        }
+        List<Cookie> results = new ArrayList<>();
+        for (int i = 0; i < a.length(); i++) {
+            String s = a.getString(i);
+            int semi = s.indexOf(';');
+            String nv = (semi > -1) ? s.substring(0, semi) : s;
+            int eq = nv.indexOf('=');
+            if (eq > 0) {
+                results.add(new Cookie(nv.substring(0, eq).trim(), nv.substring(eq + 1).trim()));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns a locations response body containing a number of generated locations.
+     *
+     * @param count the number of locations
+     *
+     * @return a byte array
+     *
+     * @throws IOException on failure
+     */
+    public byte[] getLocationsBody(int count) throws IOException {
+        return createLocationsBody(getLocationIds(count), null).getBytes(UTF8);
+    }
+
+    /**
+     * Returns a locations response body for a set of locations.
+     *
+     * @param locations the location IDs
+     * @param systemState the system state to report for every location (or null to use the fixture's value)
+     *
+     * @return a String
+     *
+     * @throws IOException on failure
+     */
+    public String createLocationsBody(List<String> locations, String systemState) throws IOException {
+        JSONObject fixture = getBody("getLocations.json");
+        JSONObject fl = fixture.getJSONObject("locations");
+        JSONObject template = fl.getJSONObject((String)fl.keySet().iterator().next());
+
+        JSONObject l = new JSONObject();
+        for (String id : locations) {
+            JSONObject loc = new JSONObject(template.toString());
+            if (systemState != null) {
+                loc.put("system_state", systemState);
+            }
+            l.put(id, loc);
+        }
+
+        JSONObject json = new JSONObject();
+        json.put("num_locations", locations.size());
+        json.put("locations", l);
+        return json.toString();
+    }
+
+    /**
+     * Returns a get/set state response body for a state code.
+     *
+     * @param code the state code
+     *
+     * @return a byte array
+     *
+     * @throws IOException on failure
+     */
+    public byte[] getStateBody(int code) throws IOException {
+        // use the fixture as the template so that any other fields it gains are carried along
+        JSONObject json = getBody("getState.json");
+        json.put("response_code", code);
+        return json.toString().getBytes(UTF8);
+    }
+
+    /**
+     * Returns the IDs of generated locations.
+     *
+     * @param count the number of locations
+     *
+     * @return a List of location IDs
+     */
+    public static List<String> getLocationIds(int count) {
+        List<String> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            results.add(Integer.toString(FIRST_LOCATION_ID + i));
+        }
+        return results;
+    }
+
+    private JSONObject getBody(String name) throws IOException {
+        return getResponse(name).getJSONObject("jsonBody");
+    }
+
+    private JSONObject getResponse(String name) throws IOException {
+        try (Reader r = new InputStreamReader(new FileInputStream(new File(dir, name)), UTF8)) {
+            return new JSONObject(new JSONTokener(r)).getJSONObject("response");
+        }
+    }
+}
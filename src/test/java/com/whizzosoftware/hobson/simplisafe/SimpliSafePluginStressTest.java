@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import com.whizzosoftware.hobson.api.plugin.http.HttpResponse;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Answers loopback requests from several threads while other threads refresh, reconfigure and issue get/set state
+ * requests, then checks that the request registry, base stations and client futures end up consistent. Each
+ * caller thread runs a fixed number of iterations driven by a seeded Random, and the faults injected into the
+ * responses (duplicate deliveries and unauthorized get states) are chosen by response count.
+ */
+public class SimpliSafePluginStressTest {
+    private static final long SEED = 1234;
+    private static final int ITERATIONS = 2000;
+    private static final int RESPONSE_THREADS = 4;
+    private static final int DUPLICATE_INTERVAL = 10;
+    private static final int UNAUTHORIZED_INTERVAL = 100;
+    private static final String[] STATES = {"off", "home", "away"};
+
+    @Test
+    public void testConcurrentCallbacks() throws Exception {
+        final StressPlugin plugin = new StressPlugin();
+        final String[] locations = SimpliSafeFixtures.getLocationIds(StressPlugin.LOCATION_COUNT).toArray(new String[StressPlugin.LOCATION_COUNT]);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final List<SimpliSafeFuture<Integer>> futures = Collections.synchronizedList(new ArrayList<SimpliSafeFuture<Integer>>());
+
+        plugin.setAlternateStates(true);
+        plugin.start(1);
+        plugin.setFaults(true);
+
+        List<StressThread> callers = new ArrayList<>();
+        callers.add(new StressThread(errors, SEED) {
+            @Override
+            void iterate(Random random) {
+                plugin.onRefresh();
+            }
+        });
+        callers.add(new StressThread(errors, SEED + 1) {
+            @Override
+            void iterate(Random random) {
+                plugin.processConfiguration(LoopbackSimpliSafePlugin.createConfiguration(1 + random.nextInt(2), 0));
+            }
+        });
+        callers.add(new StressThread(errors, SEED + 2) {
+            @Override
+            void iterate(Random random) {
+                String location = locations[random.nextInt(locations.length)];
+                if (random.nextBoolean()) {
+                    futures.add(plugin.getState(location));
+                } else {
+                    futures.add(plugin.setState(location, STATES[random.nextInt(STATES.length)]));
+                }
+            }
+        });
+
+        final AtomicInteger activeCallers = new AtomicInteger(callers.size());
+        List<Thread> responders = new ArrayList<>();
+        for (int i = 0; i < RESPONSE_THREADS; i++) {
+            responders.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        // keep answering until the callers are done and nothing is left
+                        while (plugin.answerNext() || activeCallers.get() > 0) {
+                            Thread.yield();
+                        }
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            });
+        }
+
+        for (Thread t : responders) {
+            t.start();
+        }
+        for (StressThread t : callers) {
+            t.start();
+        }
+        for (StressThread t : callers) {
+            t.join();
+            activeCallers.decrementAndGet();
+        }
+        for (Thread t : responders) {
+            t.join();
+        }
+        assertTrue("Errors during stress run: " + errors, errors.isEmpty());
+
+        // answer everything that's still outstanding (including anything sent in response) on a single thread
+        plugin.setFaults(false);
+        plugin.drain();
+        plugin.onRefresh();
+        plugin.drain();
+
+        // both base stations were discovered and have a valid state
+        for (String location : locations) {
+            int code = plugin.getCachedState(location);
+            assertTrue(location + " has state " + code, code == SimpliSafeBaseStation.STATE_OFF || code == SimpliSafeBaseStation.STATE_HOME || code == SimpliSafeBaseStation.STATE_AWAY);
+        }
+
+        // every request was released from the registry so a new one can be sent for each base station
+        for (String location : locations) {
+            plugin.sendGetState(location, 0, false);
+        }
+        assertEquals(locations.length, plugin.drain());
+
+        // every client future was completed or failed
+        synchronized (futures) {
+            assertEquals(ITERATIONS, futures.size());
+            for (SimpliSafeFuture<Integer> f : futures) {
+                assertTrue("Future was never completed", f.isDone());
+            }
+        }
+
+        // the plugin still accepts state changes
+        SimpliSafeFuture<Integer> f = plugin.setState(locations[0], "away");
+        plugin.drain();
+        assertEquals(SimpliSafeBaseStation.STATE_AWAY, (int)f.getNow());
+        assertEquals(SimpliSafeBaseStation.STATE_AWAY, plugin.getCachedState(locations[0]));
+
+        // duplicate deliveries were dropped as stale
+        SimpliSafeMetrics.Snapshot snapshot = plugin.getMetricsSnapshot();
+        SimpliSafeMetrics.OperationSnapshot getState = snapshot.getOperation(SimpliSafeOperation.GET_STATE);
+        SimpliSafeMetrics.OperationSnapshot setState = snapshot.getOperation(SimpliSafeOperation.SET_STATE);
+        assertTrue(plugin.getDuplicateCount() > 0);
+        assertTrue(getState.getStaleCount() + setState.getStaleCount() >= plugin.getDuplicateCount());
+    }
+
+    /**
+     * A loopback plugin that delivers every DUPLICATE_INTERVAL-th response twice (so that one of them is stale) and
+     * rejects every UNAUTHORIZED_INTERVAL-th response to a get state as unauthorized to force a new login.
+     */
+    private static class StressPlugin extends LoopbackSimpliSafePlugin {
+        static final int LOCATION_COUNT = 2;
+
+        private final HttpResponse unauthorizedResponse = new FixtureHttpResponse(401, new byte[0]);
+        private final AtomicInteger answerCount = new AtomicInteger();
+        private final AtomicInteger duplicateCount = new AtomicInteger();
+        private volatile boolean faults;
+
+        StressPlugin() throws IOException {
+            super(new SimpliSafeFixtures(), LOCATION_COUNT);
+        }
+
+        void setFaults(boolean faults) {
+            this.faults = faults;
+        }
+
+        int getDuplicateCount() {
+            return duplicateCount.get();
+        }
+
+        @Override
+        protected void answer(SimpliSafeRequestContext ctx) {
+            int n = answerCount.incrementAndGet();
+            if (faults && ctx.getOperation() == SimpliSafeOperation.GET_STATE && n % UNAUTHORIZED_INTERVAL == 0) {
+                onHttpResponse(unauthorizedResponse, ctx);
+            } else {
+                if (faults && n % DUPLICATE_INTERVAL == 0) {
+                    duplicateCount.incrementAndGet();
+                    enqueue(ctx);
+                }
+                super.answer(ctx);
+            }
+        }
+    }
+
+    private abstract static class StressThread extends Thread {
+        private final List<Throwable> errors;
+        private final long seed;
+
+        StressThread(List<Throwable> errors, long seed) {
+            this.errors = errors;
+            this.seed = seed;
+        }
+
+        abstract void iterate(Random random);
+
+        @Override
+        public void run() {
+            Random random = new Random(seed);
+            try {
+                for (int i = 0; i < ITERATIONS; i++) {
+                    iterate(random);
+                }
+            } catch (Throwable t) {
+                errors.add(t);
+            }
+        }
+    }
+}
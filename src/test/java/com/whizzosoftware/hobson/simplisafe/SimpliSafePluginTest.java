@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SimpliSafePluginTest {
+    private static final String LOCATION = SimpliSafeFixtures.getLocationIds(1).get(0);
+    private static final FixtureHttpResponse UNAUTHORIZED = new FixtureHttpResponse(401, new byte[0]);
+
+    @Test
+    public void testPollSentBeforeConfirmedSetStateIsIgnored() throws Exception {
+        LoopbackSimpliSafePlugin plugin = createPlugin();
+        assertEquals(SimpliSafeBaseStation.STATE_HOME, plugin.getCachedState(LOCATION));
+
+        // a poll is sent, then a set state that's answered first
+        plugin.sendGetState(LOCATION, 0, false);
+        SimpliSafeRequestContext poll = plugin.nextRequest();
+        assertEquals(SimpliSafeOperation.GET_STATE, poll.getOperation());
+        SimpliSafeFuture<Integer> f = plugin.setState(LOCATION, "away");
+        SimpliSafeRequestContext set = plugin.nextRequest();
+        assertEquals(SimpliSafeOperation.SET_STATE, set.getOperation());
+        plugin.answer(set);
+        assertEquals(SimpliSafeBaseStation.STATE_AWAY, (int)f.getNow());
+        assertEquals(SimpliSafeBaseStation.STATE_AWAY, plugin.getCachedState(LOCATION));
+
+        // the poll's (home) response predates the set state so it doesn't revert it
+        SimpliSafeFuture<Integer> g = plugin.getState(LOCATION);
+        plugin.answer(poll);
+        assertEquals(SimpliSafeBaseStation.STATE_AWAY, plugin.getCachedState(LOCATION));
+        assertEquals(SimpliSafeBaseStation.STATE_AWAY, (int)g.getNow());
+
+        // a poll sent afterwards is applied
+        plugin.sendGetState(LOCATION, 0, false);
+        plugin.drain();
+        assertEquals(SimpliSafeBaseStation.STATE_HOME, plugin.getCachedState(LOCATION));
+
+        // the ignored state wasn't recorded as a transition
+        long[] times = new long[4];
+        int[] codes = new int[4];
+        assertEquals(3, plugin.getStateHistory(LOCATION).getTransitions(times, codes));
+        assertEquals(SimpliSafeBaseStation.STATE_HOME, codes[0]);
+        assertEquals(SimpliSafeBaseStation.STATE_AWAY, codes[1]);
+        assertEquals(SimpliSafeBaseStation.STATE_HOME, codes[2]);
+        assertNull(plugin.getStateHistory("unknown"));
+    }
+
+    @Test
+    public void testPendingSetStateSurvivesUnauthorizedSetState() throws Exception {
+        LoopbackSimpliSafePlugin plugin = createPlugin();
+
+        // "off" is sent and "away" waits for it
+        SimpliSafeFuture<Integer> f1 = plugin.setState(LOCATION, "off");
+        SimpliSafeRequestContext set = plugin.nextRequest();
+        SimpliSafeFuture<Integer> f2 = plugin.setState(LOCATION, "away");
+        assertNull(plugin.nextRequest());
+
+        // the session is rejected so both wait for a new login; "home" is requested before it completes
+        plugin.onHttpResponse(UNAUTHORIZED, set);
+        SimpliSafeFuture<Integer> f3 = plugin.setState(LOCATION, "home");
+        plugin.drain();
+
+        // the superseded "away" is never sent after "home"
+        assertEquals(Integer.valueOf(SimpliSafeBaseStation.STATE_HOME), f1.getNow());
+        assertEquals(Integer.valueOf(SimpliSafeBaseStation.STATE_HOME), f2.getNow());
+        assertEquals(Integer.valueOf(SimpliSafeBaseStation.STATE_HOME), f3.getNow());
+        assertEquals(SimpliSafeBaseStation.STATE_HOME, plugin.getCachedState(LOCATION));
+    }
+
+    @Test
+    public void testPendingSetStateSurvivesUnauthorizedGetState() throws Exception {
+        LoopbackSimpliSafePlugin plugin = createPlugin();
+
+        plugin.sendGetState(LOCATION, 0, false);
+        SimpliSafeRequestContext poll = plugin.nextRequest();
+        SimpliSafeFuture<Integer> f1 = plugin.setState(LOCATION, "off");
+        SimpliSafeRequestContext set = plugin.nextRequest();
+        SimpliSafeFuture<Integer> f2 = plugin.setState(LOCATION, "away");
+
+        // the poll is rejected, which discards the set state request so its response is stale
+        plugin.onHttpResponse(UNAUTHORIZED, poll);
+        plugin.answer(set);
+        assertFalse(f2.isDone());
+
+        // the latest requested state is sent once the new session is established
+        plugin.drain();
+        assertEquals(Integer.valueOf(SimpliSafeBaseStation.STATE_AWAY), f1.getNow());
+        assertEquals(Integer.valueOf(SimpliSafeBaseStation.STATE_AWAY), f2.getNow());
+
+        // and isn't sent again after a newer set state
+        SimpliSafeFuture<Integer> f3 = plugin.setState(LOCATION, "home");
+        plugin.drain();
+        assertEquals(Integer.valueOf(SimpliSafeBaseStation.STATE_HOME), f3.getNow());
+        assertEquals(SimpliSafeBaseStation.STATE_HOME, plugin.getCachedState(LOCATION));
+    }
+
+    @Test
+    public void testUnauthorizedResponseForReplacedSessionDoesNotForceRefresh() throws Exception {
+        final AtomicInteger forcedRefreshes = new AtomicInteger();
+        LoopbackSimpliSafePlugin plugin = new LoopbackSimpliSafePlugin(new SimpliSafeFixtures(), 3) {
+            @Override
+            protected void refresh(boolean force, SimpliSafeAccount account) {
+                if (force) {
+                    forcedRefreshes.incrementAndGet();
+                }
+                super.refresh(force, account);
+            }
+        };
+        plugin.start(10);
+
+        // polls are outstanding when the session is replaced by a new login
+        List<SimpliSafeRequestContext> polls = new ArrayList<>();
+        for (String location : SimpliSafeFixtures.getLocationIds(3)) {
+            plugin.sendGetState(location, 0, false);
+            polls.add(plugin.nextRequest());
+        }
+        plugin.performLoginRequest(polls.get(0).getAccount());
+        plugin.drain();
+
+        // rejecting them neither discards the new session nor forces another refresh
+        forcedRefreshes.set(0);
+        for (SimpliSafeRequestContext ctx : polls) {
+            plugin.onHttpResponse(UNAUTHORIZED, ctx);
+        }
+        assertEquals(0, forcedRefreshes.get());
+        assertNull(plugin.nextRequest());
+        assertTrue(polls.get(0).getAccount().hasSession());
+    }
+
+    @Test
+    public void testRemovedBaseStationIsDroppedFromMetrics() throws Exception {
+        LoopbackSimpliSafePlugin plugin = createPlugin();
+        assertTrue(plugin.getMetricsSnapshot().getLocations().contains(LOCATION));
+
+        plugin.removeBaseStation(LOCATION);
+        assertFalse(plugin.getMetricsSnapshot().getLocations().contains(LOCATION));
+        assertNull(plugin.getStateHistory(LOCATION));
+    }
+
+    private LoopbackSimpliSafePlugin createPlugin() throws IOException {
+        LoopbackSimpliSafePlugin plugin = new LoopbackSimpliSafePlugin(new SimpliSafeFixtures(), 1);
+        plugin.start(10);
+        return plugin;
+    }
+}
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SimpliSafePollSchedulerTest {
+    private static final long SEED = 1234;
+
+    @Test
+    public void testBackoffToCeiling() {
+        SimpliSafePollScheduler ps = new SimpliSafePollScheduler(1000, 8000);
+        ps.add("1", 0);
+        assertTrue(ps.isDue("1", 0, 0));
+        assertEquals(1000, ps.getInterval("1"));
+
+        // each unchanged state doubles the interval until it reaches the ceiling
+        long[] expected = {2000, 4000, 8000, 8000};
+        long now = 0;
+        for (long interval : expected) {
+            ps.onPoll("1", now);
+            ps.onState("1", false, now);
+            assertEquals(interval, ps.getInterval("1"));
+            assertFalse(ps.isDue("1", now + interval - 1, 0));
+            assertTrue(ps.isDue("1", now + interval, 0));
+            now += interval;
+        }
+
+        // a lower ceiling clamps the current interval
+        ps.setIntervals(1000, 3000);
+        assertEquals(3000, ps.getInterval("1"));
+    }
+
+    @Test
+    public void testActivityResetsInterval() {
+        SimpliSafePollScheduler ps = createBackedOff();
+
+        // the next poll is brought forward to the floor interval
+        ps.onPoll("1", 20000);
+        assertFalse(ps.isDue("1", 27999, 0));
+        ps.onActivity("1", 20000);
+        assertEquals(1000, ps.getInterval("1"));
+        assertFalse(ps.isDue("1", 20999, 0));
+        assertTrue(ps.isDue("1", 21000, 0));
+
+        // but an earlier one isn't pushed back
+        ps.onPoll("1", 30000);
+        ps.onActivity("1", 30500);
+        assertFalse(ps.isDue("1", 30999, 0));
+        assertTrue(ps.isDue("1", 31000, 0));
+    }
+
+    @Test
+    public void testStateChangeResetsInterval() {
+        SimpliSafePollScheduler ps = createBackedOff();
+        ps.onState("1", true, 20000);
+        assertEquals(1000, ps.getInterval("1"));
+        assertFalse(ps.isDue("1", 20999, 0));
+        assertTrue(ps.isDue("1", 21000, 0));
+
+        // and backs off again from the floor
+        ps.onState("1", false, 21000);
+        assertEquals(2000, ps.getInterval("1"));
+    }
+
+    @Test
+    public void testMinInterval() {
+        SimpliSafePollScheduler ps = new SimpliSafePollScheduler(1000, 1000);
+        ps.onPoll("1", 5000);
+        assertTrue(ps.isDue("1", 6000, 0));
+        assertFalse(ps.isDue("1", 6000, 5000));
+        assertTrue(ps.isDue("1", 10000, 5000));
+    }
+
+    @Test
+    public void testSpread() {
+        SimpliSafePollScheduler ps = new SimpliSafePollScheduler(4000, 4000, new Random(SEED));
+        ps.setStaggered(true);
+        for (int i = 0; i < 4; i++) {
+            ps.add(Integer.toString(i), 0);
+        }
+
+        // each location gets its own 1000ms slot with up to half a slot of jitter
+        for (int n = 0; n < 100; n++) {
+            long now = n * 10000;
+            ps.spread(now);
+            for (int i = 0; i < 4; i++) {
+                String location = Integer.toString(i);
+                long slotStart = now + i * 1000;
+                assertFalse(i > 0 && ps.isDue(location, slotStart - 1, 0));
+                assertTrue(ps.isDue(location, slotStart + 500, 0));
+            }
+        }
+    }
+
+    @Test
+    public void testSpreadSubset() {
+        SimpliSafePollScheduler ps = new SimpliSafePollScheduler(4000, 4000, new Random(SEED));
+        ps.add("1", 0);
+        ps.add("2", 0);
+        ps.add("3", 0);
+        ps.onPoll("3", 0);
+
+        // only the given locations are spread, across the whole floor interval
+        ps.spread(Arrays.asList("1", "2"), 10000);
+        assertTrue(ps.isDue("1", 11000, 0));
+        assertFalse(ps.isDue("2", 11999, 0));
+        assertTrue(ps.isDue("2", 13000, 0));
+        assertTrue(ps.isDue("3", 4000, 0));
+    }
+
+    @Test
+    public void testJitter() {
+        SimpliSafePollScheduler ps = new SimpliSafePollScheduler(10000, 10000, new Random(SEED));
+        ps.setStaggered(true);
+
+        // polls land within 10% either side of the interval and aren't all at the same time
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int n = 0; n < 100; n++) {
+            long now = n * 100000;
+            ps.onPoll("1", now);
+            long next = findNextPollTime(ps, "1", now);
+            assertTrue(next >= now + 9000);
+            assertTrue(next < now + 11000);
+            min = Math.min(min, next - now);
+            max = Math.max(max, next - now);
+        }
+        assertTrue(max - min > 1000);
+    }
+
+    /**
+     * Creates a scheduler with a single location that has backed off to the ceiling.
+     */
+    private SimpliSafePollScheduler createBackedOff() {
+        SimpliSafePollScheduler ps = new SimpliSafePollScheduler(1000, 8000);
+        for (int i = 0; i < 4; i++) {
+            ps.onState("1", false, 0);
+        }
+        assertEquals(8000, ps.getInterval("1"));
+        assertFalse(ps.isDue("1", 7999, 0));
+        return ps;
+    }
+
+    /**
+     * Finds the earliest time a location is due with a binary search.
+     */
+    private long findNextPollTime(SimpliSafePollScheduler ps, String location, long now) {
+        long lo = now;
+        long hi = now + 1000000;
+        while (lo < hi) {
+            long mid = (lo + hi) / 2;
+            if (ps.isDue(location, mid, 0)) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+}
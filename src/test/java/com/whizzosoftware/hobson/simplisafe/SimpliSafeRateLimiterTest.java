@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static com.whizzosoftware.hobson.simplisafe.SimpliSafeRateLimiter.OperationClass.*;
+
+public class SimpliSafeRateLimiterTest {
+    @Test
+    public void testBurstAndRefill() {
+        SimpliSafeRateLimiter rl = new SimpliSafeRateLimiter(1, 1, 2);
+
+        // the burst capacity is twice the rate
+        for (int i = 0; i < 4; i++) {
+            assertTrue(rl.tryAcquire(BACKGROUND, 1000));
+        }
+        assertFalse(rl.canAcquire(BACKGROUND, 1000));
+        assertFalse(rl.tryAcquire(BACKGROUND, 1000));
+
+        // tokens are refilled at the rate and never beyond the capacity
+        assertFalse(rl.tryAcquire(BACKGROUND, 1499));
+        assertTrue(rl.tryAcquire(BACKGROUND, 1500));
+        assertFalse(rl.tryAcquire(BACKGROUND, 1500));
+        for (int i = 0; i < 4; i++) {
+            assertTrue(rl.tryAcquire(BACKGROUND, 100000));
+        }
+        assertFalse(rl.tryAcquire(BACKGROUND, 100000));
+    }
+
+    @Test
+    public void testLoginsAreLimitedPerAccount() {
+        SimpliSafeRateLimiter rl = new SimpliSafeRateLimiter(2, 1, 1);
+        assertTrue(rl.tryAcquire(LOGIN, "a", 1000));
+        assertTrue(rl.tryAcquire(LOGIN, "a", 1000));
+        assertFalse(rl.tryAcquire(LOGIN, "a", 1000));
+
+        // another account has its own budget and neither affects other operations
+        assertTrue(rl.tryAcquire(LOGIN, "b", 1000));
+        assertTrue(rl.tryAcquire(BACKGROUND, 1000));
+        assertTrue(rl.tryAcquire(SET_STATE, 1000));
+
+        // two logins a minute
+        assertFalse(rl.tryAcquire(LOGIN, "a", 30999));
+        assertTrue(rl.tryAcquire(LOGIN, "a", 31000));
+    }
+
+    @Test
+    public void testSetStatesBorrowFromBackground() {
+        SimpliSafeRateLimiter rl = new SimpliSafeRateLimiter(1, 1, 1);
+        assertTrue(rl.tryAcquire(SET_STATE, 1000));
+        assertTrue(rl.tryAcquire(SET_STATE, 1000));
+
+        // set states use the background budget once their own is exhausted
+        assertTrue(rl.canAcquire(SET_STATE, 1000));
+        assertTrue(rl.tryAcquire(SET_STATE, 1000));
+        assertTrue(rl.tryAcquire(SET_STATE, 1000));
+        assertFalse(rl.tryAcquire(SET_STATE, 1000));
+        assertFalse(rl.tryAcquire(BACKGROUND, 1000));
+
+        // but background requests never use the set state budget
+        rl = new SimpliSafeRateLimiter(1, 1, 1);
+        assertTrue(rl.tryAcquire(BACKGROUND, 1000));
+        assertTrue(rl.tryAcquire(BACKGROUND, 1000));
+        assertFalse(rl.tryAcquire(BACKGROUND, 1000));
+        assertTrue(rl.tryAcquire(SET_STATE, 1000));
+    }
+
+    @Test
+    public void testSetRatesOnlyRebuildsChangedBuckets() {
+        SimpliSafeRateLimiter rl = new SimpliSafeRateLimiter(1, 1, 1);
+        assertTrue(rl.tryAcquire(LOGIN, "a", 1000));
+        assertTrue(rl.tryAcquire(BACKGROUND, 1000));
+        assertTrue(rl.tryAcquire(BACKGROUND, 1000));
+        assertTrue(rl.tryAcquire(SET_STATE, 1000));
+        assertTrue(rl.tryAcquire(SET_STATE, 1000));
+
+        // the same rates don't refill anything
+        rl.setRates(1, 1, 1);
+        assertFalse(rl.canAcquire(BACKGROUND, 1000));
+        assertFalse(rl.tryAcquire(SET_STATE, 1000));
+        assertFalse(rl.tryAcquire(LOGIN, "a", 1000));
+
+        // a changed rate only rebuilds that bucket
+        rl.setRates(1, 1, 2);
+        assertTrue(rl.tryAcquire(BACKGROUND, 1000));
+        assertFalse(rl.tryAcquire(LOGIN, "a", 1000));
+        rl.setRates(2, 1, 2);
+        assertTrue(rl.tryAcquire(LOGIN, "a", 1000));
+    }
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class SimpliSafeResponseParserTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testFixturesMatchJSONObject() throws Exception {
+        File[] files = new File("wiremock/mappings").listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.contains("State") && name.endsWith(".json");
+            }
+        });
+        assertNotNull(files);
+        assertTrue(files.length > 0);
+        for (File f : files) {
+            String body = readMapping(f).getJSONObject("response").getJSONObject("jsonBody").toString();
+            int expected = new JSONObject(body).getInt("response_code");
+            assertEquals(f.getName(), expected, SimpliSafeResponseParser.parseResponseCode(body.getBytes(UTF8)));
+        }
+    }
+
+    @Test
+    public void testWhitespace() {
+        assertEquals(5, parse("{\n\t\"response_code\" :\r\n 5\n}"));
+    }
+
+    @Test
+    public void testNestedResponseCode() {
+        String body = "{\"data\":{\"response_code\":9},\"list\":[{\"response_code\":8}],\"response_code\":4}";
+        assertEquals(new JSONObject(body).getInt("response_code"), parse(body));
+        assertEquals(4, parse(body));
+
+        // a nested response_code alone isn't the response code
+        body = "{\"data\":{\"response_code\":9}}";
+        assertFalse(new JSONObject(body).has("response_code"));
+        assertEquals(SimpliSafeBaseStation.STATE_UNKNOWN, parse(body));
+    }
+
+    @Test
+    public void testStringValue() {
+        String body = "{\"response_code\":\"5\"}";
+        assertEquals(new JSONObject(body).getInt("response_code"), parse(body));
+        assertEquals(5, parse(body));
+    }
+
+    @Test
+    public void testStringValueContainingKey() {
+        String body = "{\"message\":\"response_code\",\"response_code\":2}";
+        assertEquals(2, parse(body));
+    }
+
+    @Test
+    public void testMissingKey() {
+        String body = "{\"return_code\":1}";
+        assertFalse(new JSONObject(body).has("response_code"));
+        assertEquals(SimpliSafeBaseStation.STATE_UNKNOWN, parse(body));
+        assertEquals(SimpliSafeBaseStation.STATE_UNKNOWN, parse(""));
+    }
+
+    private int parse(String body) {
+        return SimpliSafeResponseParser.parseResponseCode(body.getBytes(UTF8));
+    }
+
+    private JSONObject readMapping(File f) throws IOException {
+        try (FileInputStream fis = new FileInputStream(f)) {
+            return new JSONObject(new JSONTokener(fis));
+        }
+    }
+}
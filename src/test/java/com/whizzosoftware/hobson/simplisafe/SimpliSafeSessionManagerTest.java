@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SimpliSafeSessionManagerTest {
+    @Test
+    public void testSetStatesAreNeverDropped() {
+        SimpliSafeSessionManager sm = new SimpliSafeSessionManager(0, 0, 2);
+        sm.enqueue(new SimpliSafeSessionManager.ReplayRequest("1", "away"));
+        sm.enqueue(new SimpliSafeSessionManager.ReplayRequest("2", null));
+        sm.enqueue(new SimpliSafeSessionManager.ReplayRequest("3", null));
+        sm.enqueue(new SimpliSafeSessionManager.ReplayRequest("4", "off"));
+        sm.enqueue(new SimpliSafeSessionManager.ReplayRequest("5", "home"));
+        sm.enqueue(new SimpliSafeSessionManager.ReplayRequest("6", null));
+
+        // the get states made room for the set states and there's no room for another get state
+        List<SimpliSafeSessionManager.ReplayRequest> requests = sm.drainReplayQueue();
+        assertEquals(3, requests.size());
+        assertEquals("1", requests.get(0).getLocation());
+        assertEquals("4", requests.get(1).getLocation());
+        assertEquals("5", requests.get(2).getLocation());
+        assertTrue(sm.drainReplayQueue().isEmpty());
+    }
+
+    @Test
+    public void testLatestRequestPerLocationIsKept() {
+        SimpliSafeSessionManager sm = new SimpliSafeSessionManager(0, 0, 32);
+        sm.enqueue(new SimpliSafeSessionManager.ReplayRequest("1", "away"));
+        sm.enqueue(new SimpliSafeSessionManager.ReplayRequest("1", null));
+        sm.enqueue(new SimpliSafeSessionManager.ReplayRequest("1", "off"));
+
+        List<SimpliSafeSessionManager.ReplayRequest> requests = sm.drainReplayQueue();
+        assertEquals(2, requests.size());
+        assertFalse(requests.get(0).isSetState());
+        assertEquals("off", requests.get(1).getState());
+    }
+}
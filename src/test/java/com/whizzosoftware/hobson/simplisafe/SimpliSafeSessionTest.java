@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SimpliSafeSessionTest {
+    private static final long NOW = 1400000000000L;
+
+    @Test
+    public void testLoginFixtureExpiration() throws Exception {
+        JSONObject json;
+        try (FileInputStream fis = new FileInputStream(new File("wiremock/mappings/login.json"))) {
+            json = new JSONObject(new JSONTokener(fis));
+        }
+        JSONArray a = json.getJSONObject("response").getJSONObject("headers").getJSONArray("Set-Cookie");
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < a.length(); i++) {
+            values.add(a.getString(i));
+        }
+        assertEquals(1410496182000L, SimpliSafeSession.parseCookieExpiration(createHeaders("Set-Cookie", values), NOW));
+    }
+
+    @Test
+    public void testEarliestExpiration() {
+        Map<String,List<String>> headers = createHeaders("set-cookie", Arrays.asList(
+            "a=1; expires=Wed, 09 Jun 2021 10:18:14 GMT; path=/",
+            "b=2; Expires=Wed, 09-Jun-2021 10:18:13 GMT",
+            "c=3"
+        ));
+        assertEquals(1623233893000L, SimpliSafeSession.parseCookieExpiration(headers, NOW));
+    }
+
+    @Test
+    public void testMaxAgeTakesPrecedence() {
+        Map<String,List<String>> headers = createHeaders("Set-Cookie", Collections.singletonList("a=1; Max-Age=60; expires=1410496182"));
+        assertEquals(NOW + 60000, SimpliSafeSession.parseCookieExpiration(headers, NOW));
+    }
+
+    @Test
+    public void testNoExpiration() {
+        assertEquals(0, SimpliSafeSession.parseCookieExpiration(createHeaders("Set-Cookie", Collections.singletonList("a=1; path=/")), NOW));
+        assertEquals(0, SimpliSafeSession.parseCookieExpiration(createHeaders("Set-Cookie", Collections.singletonList("a=1; expires=soon")), NOW));
+        assertEquals(0, SimpliSafeSession.parseCookieExpiration(Collections.<String,List<String>>emptyMap(), NOW));
+        assertEquals(0, SimpliSafeSession.parseCookieExpiration(null, NOW));
+    }
+
+    private Map<String,List<String>> createHeaders(String name, List<String> values) {
+        Map<String,List<String>> headers = new HashMap<>();
+        headers.put("Content-Type", Collections.singletonList("application/json"));
+        headers.put(name, values);
+        return headers;
+    }
+}
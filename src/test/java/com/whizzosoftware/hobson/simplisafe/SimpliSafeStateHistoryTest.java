@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+package com.whizzosoftware.hobson.simplisafe;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SimpliSafeStateHistoryTest {
+    @Test
+    public void testWraparound() {
+        SimpliSafeStateHistory h = new SimpliSafeStateHistory(3);
+        h.add(1000, SimpliSafeBaseStation.STATE_OFF);
+        h.add(2000, SimpliSafeBaseStation.STATE_HOME);
+        assertEquals(2, h.size());
+        h.add(3000, SimpliSafeBaseStation.STATE_AWAY);
+        h.add(4000, SimpliSafeBaseStation.STATE_OFF);
+        h.add(5000, SimpliSafeBaseStation.STATE_HOME);
+        assertEquals(3, h.size());
+
+        // the two oldest were overwritten and the rest are returned newest first
+        long[] times = new long[5];
+        int[] codes = new int[5];
+        assertEquals(3, h.getTransitions(times, codes));
+        assertEquals(5000, times[0]);
+        assertEquals(SimpliSafeBaseStation.STATE_HOME, codes[0]);
+        assertEquals(4000, times[1]);
+        assertEquals(SimpliSafeBaseStation.STATE_OFF, codes[1]);
+        assertEquals(3000, times[2]);
+        assertEquals(SimpliSafeBaseStation.STATE_AWAY, codes[2]);
+
+        // a smaller array only gets the newest
+        times = new long[1];
+        codes = new int[1];
+        assertEquals(1, h.getTransitions(times, codes));
+        assertEquals(5000, times[0]);
+    }
+
+    @Test
+    public void testTimeInState() {
+        SimpliSafeStateHistory h = new SimpliSafeStateHistory(8);
+        assertEquals(0, h.getTimeInState(SimpliSafeBaseStation.STATE_AWAY, 0, 10000));
+
+        h.add(1000, SimpliSafeBaseStation.STATE_AWAY);
+        h.add(3000, SimpliSafeBaseStation.STATE_OFF);
+        h.add(4000, SimpliSafeBaseStation.STATE_AWAY);
+        h.add(8000, SimpliSafeBaseStation.STATE_HOME);
+
+        assertEquals(6000, h.getTimeInState(SimpliSafeBaseStation.STATE_AWAY, 0, 10000));
+        assertEquals(1000, h.getTimeInState(SimpliSafeBaseStation.STATE_OFF, 0, 10000));
+        assertEquals(2000, h.getTimeInState(SimpliSafeBaseStation.STATE_HOME, 0, 10000));
+
+        // the current state lasts until now
+        assertEquals(4000, h.getTimeInState(SimpliSafeBaseStation.STATE_HOME, 0, 12000));
+    }
+
+    @Test
+    public void testTimeInStateClampsToWindow() {
+        SimpliSafeStateHistory h = new SimpliSafeStateHistory(8);
+        h.add(1000, SimpliSafeBaseStation.STATE_AWAY);
+        h.add(3000, SimpliSafeBaseStation.STATE_OFF);
+        h.add(4000, SimpliSafeBaseStation.STATE_AWAY);
+
+        // only the part of each state that falls within the window counts
+        assertEquals(1000 + 6000, h.getTimeInState(SimpliSafeBaseStation.STATE_AWAY, 2000, 10000));
+        assertEquals(6000, h.getTimeInState(SimpliSafeBaseStation.STATE_AWAY, 3500, 10000));
+        assertEquals(500, h.getTimeInState(SimpliSafeBaseStation.STATE_OFF, 3500, 10000));
+        assertEquals(0, h.getTimeInState(SimpliSafeBaseStation.STATE_OFF, 5000, 10000));
+    }
+
+    @Test
+    public void testTimeInStateOnlyCoversRecordedPeriod() {
+        SimpliSafeStateHistory h = new SimpliSafeStateHistory(2);
+        h.add(1000, SimpliSafeBaseStation.STATE_AWAY);
+        h.add(3000, SimpliSafeBaseStation.STATE_OFF);
+        h.add(4000, SimpliSafeBaseStation.STATE_AWAY);
+
+        // the first away period was overwritten so it no longer counts
+        assertEquals(6000, h.getTimeInState(SimpliSafeBaseStation.STATE_AWAY, 0, 10000));
+        assertEquals(1000, h.getTimeInState(SimpliSafeBaseStation.STATE_OFF, 0, 10000));
+    }
+}